@@ -28,9 +28,17 @@ import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
 
+import io.github.technologize.log4j.appender.fluency.core.AggregationConfig;
+import io.github.technologize.log4j.appender.fluency.core.AppenderOptions;
+import io.github.technologize.log4j.appender.fluency.core.AsyncQueueConfig;
+import io.github.technologize.log4j.appender.fluency.core.BackpressureConfig;
+import io.github.technologize.log4j.appender.fluency.core.BatchingConfig;
 import io.github.technologize.log4j.appender.fluency.core.Field;
 import io.github.technologize.log4j.appender.fluency.core.FluencyAppender;
 import io.github.technologize.log4j.appender.fluency.core.FluencyConfig;
+import io.github.technologize.log4j.appender.fluency.core.MetricsConfig;
+import io.github.technologize.log4j.appender.fluency.core.RateLimitConfig;
+import io.github.technologize.log4j.appender.fluency.core.RecordConfig;
 
 /**
  * @author Bharat Gadde
@@ -58,6 +66,21 @@ public class AwsS3Appender extends FluencyAppender {
 		super(name, tag, fields, fluentdConfig, filter, layout, ignoreExceptions);
 	}
 
+	/**
+	 * @param name
+	 * @param tag
+	 * @param fields
+	 * @param fluentdConfig
+	 * @param options optional elements, null for none
+	 * @param filter
+	 * @param layout
+	 * @param ignoreExceptions
+	 */
+	protected AwsS3Appender(String name, String tag, Field[] fields, FluencyConfig fluentdConfig,
+			AppenderOptions options, Filter filter, Layout<? extends Serializable> layout, String ignoreExceptions) {
+		super(name, tag, fields, fluentdConfig, options, filter, layout, ignoreExceptions);
+	}
+
 	/**
 	 * Creates Appender
 	 * @param name
@@ -65,6 +88,13 @@ public class AwsS3Appender extends FluencyAppender {
 	 * @param ignoreExceptions
 	 * @param fields
 	 * @param awsS3Config
+	 * @param recordConfig
+	 * @param asyncQueueConfig
+	 * @param batchingConfig
+	 * @param backpressureConfig
+	 * @param rateLimits
+	 * @param aggregationConfig
+	 * @param metricsConfig
 	 * @param layout
 	 * @param filter
 	 * @return
@@ -75,10 +105,21 @@ public class AwsS3Appender extends FluencyAppender {
 			@PluginAttribute("ignoreExceptions") final String ignoreExceptions,
 			@PluginElement(Field.ELEMENT_TYPE) final Field[] fields,
 			@PluginElement(FluencyConfig.ELEMENT_TYPE) final AwsS3Config awsS3Config,
+			@PluginElement(RecordConfig.ELEMENT_TYPE) final RecordConfig recordConfig,
+			@PluginElement(AsyncQueueConfig.ELEMENT_TYPE) final AsyncQueueConfig asyncQueueConfig,
+			@PluginElement(BatchingConfig.ELEMENT_TYPE) final BatchingConfig batchingConfig,
+			@PluginElement(BackpressureConfig.ELEMENT_TYPE) final BackpressureConfig backpressureConfig,
+			@PluginElement(RateLimitConfig.ELEMENT_TYPE) final RateLimitConfig[] rateLimits,
+			@PluginElement(AggregationConfig.ELEMENT_TYPE) final AggregationConfig aggregationConfig,
+			@PluginElement(MetricsConfig.ELEMENT_TYPE) final MetricsConfig metricsConfig,
 			@PluginElement(Layout.ELEMENT_TYPE) Layout<? extends Serializable> layout,
 			@PluginElement(Filter.ELEMENT_TYPE) final Filter filter) {
 
 		AwsS3Config config = Objects.nonNull(awsS3Config) ? awsS3Config : new AwsS3Config();
-		return new AwsS3Appender(name, tag, fields, config, filter, layout, ignoreExceptions);		
+		AppenderOptions options = AppenderOptions.newBuilder().setRecordConfig(recordConfig)
+				.setAsyncQueueConfig(asyncQueueConfig).setBatchingConfig(batchingConfig)
+				.setBackpressureConfig(backpressureConfig).setRateLimits(rateLimits)
+				.setAggregationConfig(aggregationConfig).setMetricsConfig(metricsConfig).build();
+		return new AwsS3Appender(name, tag, fields, config, options, filter, layout, ignoreExceptions);
 	}
 }
@@ -32,13 +32,14 @@ import org.komamitsu.fluency.aws.s3.FluencyBuilderForAwsS3.FormatType;
 import org.komamitsu.fluency.aws.s3.ingester.S3DestinationDecider;
 
 import io.github.technologize.log4j.appender.fluency.core.FluencyConfig;
+import io.github.technologize.log4j.appender.fluency.core.SharedFluencyConfig;
 
 /**
  * @author Bharat Gadde
  *
  */
 @Plugin(name = AwsS3Config.PLUGIN_NAME, category = Core.CATEGORY_NAME, elementType = FluencyConfig.ELEMENT_TYPE, printObject = true)
-public class AwsS3Config implements FluencyConfig {
+public class AwsS3Config implements SharedFluencyConfig {
 	
 	/**
 	 * Config plugin Name
@@ -46,11 +47,22 @@ public class AwsS3Config implements FluencyConfig {
 	public static final String PLUGIN_NAME = "AwsS3Config";
 	
 	private static final StatusLogger LOGGER = StatusLogger.getLogger();
+
+	private static final long DEFAULT_MAX_BUFFER_SIZE = 536870912;
+	/* used by fluency when not configured */
+	private static final int FLUENCY_DEFAULT_WAIT_SECONDS = 60;
 	
     /**
      * builder for fluency
      */
     private FluencyBuilderForAwsS3 fluencyBuilder;    
+
+    private long maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+    private int waitUntilBufferFlushed = FLUENCY_DEFAULT_WAIT_SECONDS;
+    private int waitUntilFlusherTerminated = FLUENCY_DEFAULT_WAIT_SECONDS;
+    private boolean jvmHeapBufferMode;
+    private String managerName = PLUGIN_NAME + " [default]";
+    private ManagerKey managerKey = new ManagerKey(managerName, null);
     
     /**
      * Creates config depending on values given in configurationFile of log4j
@@ -107,10 +119,14 @@ public class AwsS3Config implements FluencyConfig {
     		@PluginAttribute("fileBackupDir") final String fileBackupDir,
     		@PluginAttribute(value= "waitUntilBufferFlushed", defaultInt= 10) final int waitUntilBufferFlushed,
     		@PluginAttribute(value= "waitUntilFlusherTerminated", defaultInt= 10) final int waitUntilFlusherTerminated,
-    		@PluginAttribute(value= "jvmHeapBufferMode", defaultBoolean= true) final boolean jvmHeapBufferMode,
+    		@PluginAttribute(value= "jvmHeapBufferMode") final boolean jvmHeapBufferMode,
     		@PluginAttribute("customS3DestinationDecider") final String customS3DestinationDecider) {
     	
     	AwsS3Config config = new AwsS3Config();
+    	config.maxBufferSize = maxBufferSize;
+    	config.waitUntilBufferFlushed = waitUntilBufferFlushed;
+    	config.waitUntilFlusherTerminated = waitUntilFlusherTerminated;
+    	config.jvmHeapBufferMode = jvmHeapBufferMode;
     	config.fluencyBuilder = new FluencyBuilderForAwsS3();
     	
     	FluencyBuilderForAwsS3 builder = config.fluencyBuilder;
@@ -121,6 +137,7 @@ public class AwsS3Config implements FluencyConfig {
     	builder.setFlushAttemptIntervalMillis(flushAttemptIntervalMillis);
     	builder.setWaitUntilBufferFlushed(waitUntilBufferFlushed);
     	builder.setWaitUntilFlusherTerminated(waitUntilFlusherTerminated);
+    	builder.setJvmHeapBufferMode(jvmHeapBufferMode);
     	builder.setFormatType(FormatType.valueOf(formatType));
     	builder.setFormatCsvColumnNames(Arrays.asList(formatCsvColumnNames.split("\\s*,\\s*")));
     	builder.setAwsEndpoint(awsEndpoint);
@@ -149,6 +166,20 @@ public class AwsS3Config implements FluencyConfig {
 				LOGGER.error("Error while setting CustomS3DestinationDecider: {}", e.getMessage());
 			}
 		}
+    	/* the name shows up in status logs, the secret only takes part in the key */
+    	config.managerName = PLUGIN_NAME + " [formatType=" + formatType + ", formatCsvColumnNames="
+    			+ formatCsvColumnNames + ", awsEndpoint=" + awsEndpoint + ", awsRegion=" + awsRegion
+    			+ ", awsAccessKeyId=" + awsAccessKeyId + ", retryMax=" + senderRetryMax + ", retryIntervalMillis=" + senderRetryIntervalMillis
+    			+ ", maxRetryIntervalMillis=" + senderMaxRetryIntervalMillis + ", retryFactor=" + senderRetryFactor
+    			+ ", senderWorkBufSize=" + senderWorkBufSize + ", compressionEnabled=" + compressionEnabled
+    			+ ", s3KeyPrefix=" + s3KeyPrefix + ", s3KeySuffix=" + s3KeySuffix + ", zoneOffsetId=" + zoneOffsetId
+    			+ ", maxBufferSize=" + maxBufferSize + ", bufferChunkInitialSize=" + bufferChunkInitialSize
+    			+ ", bufferChunkRetentionSize=" + bufferChunkRetentionSize + ", bufferChunkRetentionTimeMillis="
+    			+ bufferChunkRetentionTimeMillis + ", flushAttemptIntervalMillis=" + flushAttemptIntervalMillis
+    			+ ", fileBackupDir=" + fileBackupDir + ", waitUntilBufferFlushed=" + waitUntilBufferFlushed
+    			+ ", waitUntilFlusherTerminated=" + waitUntilFlusherTerminated + ", jvmHeapBufferMode="
+    			+ jvmHeapBufferMode + ", customS3DestinationDecider=" + customS3DestinationDecider + "]";
+    	config.managerKey = new ManagerKey(config.managerName, awsSecretAccessKey);
         return config;
     }
     
@@ -161,4 +192,79 @@ public class AwsS3Config implements FluencyConfig {
     	return builder.build();
     }
 
+    /**
+     * returns the settings and the secret, appenders with equal settings share one fluency
+     */
+    public Object getManagerKey() {
+    	return managerKey;
+    }
+
+    /**
+     * returns the settings without the secret
+     */
+    public String getManagerName() {
+    	return managerName;
+    }
+
+    /**
+     * returns max buffer size
+     */
+    public long getMaxBufferSize() {
+    	return maxBufferSize;
+    }
+
+    /**
+     * returns seconds fluency waits for its buffer to be flushed on close
+     */
+    public int getWaitUntilBufferFlushed() {
+    	return waitUntilBufferFlushed;
+    }
+
+    /**
+     * returns seconds fluency waits for its flusher to terminate on close
+     */
+    public int getWaitUntilFlusherTerminated() {
+    	return waitUntilFlusherTerminated;
+    }
+
+    /**
+     * returns whether fluency's buffer chunks are on the JVM heap
+     */
+    public boolean isJvmHeapBufferMode() {
+    	return jvmHeapBufferMode;
+    }
+
+    /**
+     * Printable settings and the secret access key, prints without the secret
+     */
+    private static final class ManagerKey {
+    	private final String settings;
+    	private final String awsSecretAccessKey;
+
+    	private ManagerKey(final String settings, final String awsSecretAccessKey) {
+    		this.settings = settings;
+    		this.awsSecretAccessKey = awsSecretAccessKey;
+    	}
+
+    	@Override
+    	public boolean equals(final Object other) {
+    		if (!(other instanceof ManagerKey)) {
+    			return false;
+    		}
+    		ManagerKey key = (ManagerKey) other;
+    		return settings.equals(key.settings) && (awsSecretAccessKey == null ? key.awsSecretAccessKey == null
+    				: awsSecretAccessKey.equals(key.awsSecretAccessKey));
+    	}
+
+    	@Override
+    	public int hashCode() {
+    		return settings.hashCode();
+    	}
+
+    	@Override
+    	public String toString() {
+    		return settings;
+    	}
+    }
+
 }
@@ -0,0 +1,190 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.technologize.log4j.appender.fluency.core.AppenderOptions;
+import io.github.technologize.log4j.appender.fluency.core.AsyncQueueConfig;
+import io.github.technologize.log4j.appender.fluency.core.BatchingConfig;
+import io.github.technologize.log4j.appender.fluency.core.Field;
+import io.github.technologize.log4j.appender.fluency.core.FluencyAppender;
+import io.github.technologize.log4j.appender.fluency.core.FluencyConfig;
+import io.github.technologize.log4j.appender.fluency.core.MetricsConfig;
+import io.github.technologize.log4j.appender.fluency.core.RecordConfig;
+
+/**
+ * Cost of {@link FluencyAppender#append(LogEvent)} up to fluency's buffer.
+ *
+ * Records are flushed into a {@link CountingIngester}, so neither network
+ * nor storage is part of the score. Run through {@link BenchmarkMain} to get
+ * allocation per event next to the throughput.
+ *
+ * @author Bharat Gadde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppenderBenchmark {
+
+	private static final String[] FIELD_PATTERNS = {"%X{key0}", "static value", "%t", "%marker", "%c{1}:%L"};
+
+	@Param({"MAP", "MESSAGE_PACK"})
+	private String encoding;
+
+	@Param({"0", "4", "16"})
+	private int fieldCount;
+
+	@Param({"0", "8"})
+	private int mdcSize;
+
+	@Param({"true", "false"})
+	private boolean location;
+
+	@Param({"64", "1024"})
+	private int messageSize;
+
+	/* run with -p asyncQueue=true to put the async stage in front of fluency */
+	@Param({"false"})
+	private boolean asyncQueue;
+
+	/* run with -p asyncQueue=true -p batching=true to collect records in striped batches, needs the async stage */
+	@Param({"false"})
+	private boolean batching;
+
+	/* with and without the appender metrics, the difference is their cost */
+	@Param({"false", "true"})
+	private boolean metrics;
+
+	/* fluency's buffer chunks on the heap or in direct memory */
+	@Param({"false", "true"})
+	private boolean jvmHeapBufferMode;
+
+	private CountingFluencyConfig fluencyConfig;
+	private FluencyAppender appender;
+	private LogEvent logEvent;
+
+	/**
+	 * Builds the appender and the event appended by every invocation
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		Field[] fields = new Field[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			fields[i] = Field.createStaticField("field" + i, FIELD_PATTERNS[i % FIELD_PATTERNS.length]);
+		}
+		RecordConfig recordConfig = RecordConfig.createRecordConfig(encoding, 4096, "ISO_8601",
+				location ? "ALL" : "OFF", null, mdcSize > 0, null, null, null, false, false, 1024,
+				300000);
+		fluencyConfig = new CountingFluencyConfig(jvmHeapBufferMode);
+		AsyncQueueConfig asyncQueueConfig = asyncQueue
+				? AsyncQueueConfig.createAsyncQueueConfig(8192, "PARK", "BLOCK", "INFO")
+				: null;
+		BatchingConfig batchingConfig = batching ? BatchingConfig.createBatchingConfig(0, 64, 65536, 100) : null;
+		MetricsConfig metricsConfig = metrics ? MetricsConfig.createMetricsConfig(false, null, 60000) : null;
+		AppenderOptions options = AppenderOptions.newBuilder().setRecordConfig(recordConfig)
+				.setAsyncQueueConfig(asyncQueueConfig).setBatchingConfig(batchingConfig)
+				.setMetricsConfig(metricsConfig).build();
+		appender = new BenchmarkAppender(fields, fluencyConfig, options);
+		appender.start();
+
+		SortedArrayStringMap contextData = new SortedArrayStringMap();
+		for (int i = 0; i < mdcSize; i++) {
+			contextData.putValue("key" + i, "value" + i);
+		}
+		contextData.freeze();
+
+		char[] text = new char[messageSize];
+		Arrays.fill(text, 'x');
+		logEvent = Log4jLogEvent.newBuilder()
+				.setLoggerName("io.github.technologize.log4j.appender.fluency.benchmarks.AppenderBenchmark")
+				.setLoggerFqcn(AppenderBenchmark.class.getName())
+				.setLevel(org.apache.logging.log4j.Level.INFO)
+				.setMessage(new SimpleMessage(new String(text)))
+				.setContextData(contextData)
+				.setIncludeLocation(location)
+				.setSource(location ? new StackTraceElement(AppenderBenchmark.class.getName(), "append",
+						"AppenderBenchmark.java", 42) : null)
+				.setThreadName("benchmark")
+				.setTimeMillis(System.currentTimeMillis())
+				.build();
+	}
+
+	/**
+	 * Stops the appender, which flushes what was appended, and checks it reached the ingester
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		appender.stop();
+		if (fluencyConfig.getIngester().getBytes() == 0) {
+			throw new IllegalStateException("No record reached the ingester");
+		}
+	}
+
+	/**
+	 * one appending thread
+	 */
+	@Benchmark
+	@Threads(1)
+	public void append() {
+		appender.append(logEvent);
+	}
+
+	/**
+	 * four threads appending to the same appender
+	 */
+	@Benchmark
+	@Threads(4)
+	public void appendContended() {
+		appender.append(logEvent);
+	}
+
+	/**
+	 * Exposes the protected constructor
+	 */
+	private static final class BenchmarkAppender extends FluencyAppender {
+		private BenchmarkAppender(final Field[] fields, final FluencyConfig fluencyConfig,
+				final AppenderOptions options) {
+			super("benchmark", "benchmark", fields, fluencyConfig, options, null,
+					PatternLayout.newBuilder().withPattern("%m").build(), "true");
+		}
+	}
+}
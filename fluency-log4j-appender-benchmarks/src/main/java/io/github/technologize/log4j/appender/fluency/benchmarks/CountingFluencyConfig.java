@@ -0,0 +1,106 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.benchmarks;
+
+import org.komamitsu.fluency.Fluency;
+import org.komamitsu.fluency.FluencyBuilder;
+import org.komamitsu.fluency.fluentd.recordformat.FluentdRecordFormatter;
+
+import io.github.technologize.log4j.appender.fluency.core.SharedFluencyConfig;
+
+/**
+ * {@link SharedFluencyConfig} building a fluency which formats records like the
+ * fluentd appender and hands them to a {@link CountingIngester}
+ *
+ * @author Bharat Gadde
+ *
+ */
+public class CountingFluencyConfig implements SharedFluencyConfig {
+
+	private static final long MAX_BUFFER_SIZE = 536870912;
+	private static final int WAIT_SECONDS = 10;
+
+	private final CountingIngester ingester = new CountingIngester();
+	private final boolean jvmHeapBufferMode;
+	private Fluency fluency;
+
+	/**
+	 * @param jvmHeapBufferMode whether fluency's buffer chunks are on the heap
+	 */
+	public CountingFluencyConfig(final boolean jvmHeapBufferMode) {
+		this.jvmHeapBufferMode = jvmHeapBufferMode;
+	}
+
+	@Override
+	public Fluency makeFluency() {
+		FluencyBuilder builder = new FluencyBuilder();
+		builder.setMaxBufferSize(MAX_BUFFER_SIZE);
+		builder.setWaitUntilBufferFlushed(WAIT_SECONDS);
+		builder.setWaitUntilFlusherTerminated(WAIT_SECONDS);
+		builder.setJvmHeapBufferMode(jvmHeapBufferMode);
+		fluency = builder.buildFromIngester(new FluentdRecordFormatter(), ingester);
+		return fluency;
+	}
+
+	/**
+	 * returns the config itself, every benchmark trial gets a new fluency
+	 */
+	@Override
+	public Object getManagerKey() {
+		return this;
+	}
+
+	@Override
+	public String getManagerName() {
+		return "CountingFluencyConfig";
+	}
+
+	@Override
+	public long getMaxBufferSize() {
+		return MAX_BUFFER_SIZE;
+	}
+
+	@Override
+	public boolean isJvmHeapBufferMode() {
+		return jvmHeapBufferMode;
+	}
+
+	@Override
+	public int getWaitUntilBufferFlushed() {
+		return WAIT_SECONDS;
+	}
+
+	@Override
+	public int getWaitUntilFlusherTerminated() {
+		return WAIT_SECONDS;
+	}
+
+	/**
+	 * returns the ingester records end up in
+	 * @return
+	 */
+	public CountingIngester getIngester() {
+		return ingester;
+	}
+
+	/**
+	 * returns fluency made by this config, null before {@link #makeFluency()}
+	 * @return
+	 */
+	public Fluency getFluency() {
+		return fluency;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.benchmarks;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.komamitsu.fluency.ingester.Ingester;
+import org.komamitsu.fluency.ingester.sender.Sender;
+
+/**
+ * In process {@link Ingester} which discards flushed chunks and only counts
+ * them, so benchmarks measure the appender and fluency's buffer without any
+ * network or storage cost.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public class CountingIngester implements Ingester {
+
+	private final AtomicLong chunks = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	@Override
+	public void ingest(final String tag, final ByteBuffer dataBuffer) throws IOException {
+		chunks.incrementAndGet();
+		bytes.addAndGet(dataBuffer.remaining());
+		((Buffer) dataBuffer).position(dataBuffer.limit());
+	}
+
+	/**
+	 * There is no sender behind this ingester
+	 */
+	@Override
+	public Sender getSender() {
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		/* nothing to release */
+	}
+
+	/**
+	 * returns number of chunks ingested
+	 * @return
+	 */
+	public long getChunks() {
+		return chunks.get();
+	}
+
+	/**
+	 * returns number of bytes ingested
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.komamitsu.fluency.BufferFullException;
+import org.komamitsu.fluency.Fluency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.technologize.log4j.appender.fluentd.FakeForwardServer;
+import io.github.technologize.log4j.appender.fluentd.FluentdConfig;
+import io.github.technologize.log4j.appender.fluentd.Server;
+
+/**
+ * Delivery throughput of the fluentd senders to 1, 2 or 4
+ * {@link FakeForwardServer}s on loopback TCP or unix domain sockets.
+ *
+ * Fluency's buffer is kept small, so emitting waits for chunks to be sent
+ * (and acked) and the score is bounded by the sender rather than by the
+ * buffer. With one chunk in flight over SOCKET and TCP fluency's own sender
+ * is used.
+ *
+ * @author Bharat Gadde
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SenderBenchmark {
+
+	/* throughput should grow with the servers chunks are spread over */
+	@Param({"1", "2", "4"})
+	private int serverCount;
+
+	@Param({"SOCKET", "NIO"})
+	private String transport;
+
+	/* loopback TCP or unix domain sockets, which need Java 16 and always use channels */
+	@Param({"TCP", "UDS"})
+	private String socket;
+
+	@Param({"1", "8"})
+	private int maxInflightChunks;
+
+	/* run with -p ackResponseMode=false to leave acks out */
+	@Param({"true"})
+	private boolean ackResponseMode;
+
+	/* run with -p ackDelayMillis=0,20 to vary the simulated round trip */
+	@Param({"2"})
+	private long ackDelayMillis;
+
+	@Param({"256"})
+	private int messageSize;
+
+	private FakeForwardServer[] fakeServers;
+	private Path socketDirectory;
+	private Fluency fluency;
+	private Map<String, Object> record;
+
+	/**
+	 * Starts the fake servers and the fluency sending to them
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fakeServers = new FakeForwardServer[serverCount];
+		Server[] servers = new Server[serverCount];
+		socketDirectory = "UDS".equals(socket) ? Files.createTempDirectory("fluentd") : null;
+		for (int i = 0; i < serverCount; i++) {
+			if (socketDirectory != null) {
+				String path = socketDirectory.resolve("fluent" + i + ".sock").toString();
+				fakeServers[i] = new FakeForwardServer(ackDelayMillis, path);
+				servers[i] = Server.createServer(null, 0, path);
+			} else {
+				fakeServers[i] = new FakeForwardServer(ackDelayMillis);
+				servers[i] = Server.createServer("127.0.0.1", fakeServers[i].getPort(), null);
+			}
+		}
+		String loadBalancing = maxInflightChunks > 1 || !"SOCKET".equals(transport) || socketDirectory != null
+				? "ROUND_ROBIN"
+				: null;
+		FluentdConfig fluentdConfig = FluentdConfig.createFluencyConfig(servers, 8 * 1048576, 262144, 1048576,
+				100, 20, 10, 10, 8, 400, 30000, 5000, 5000, ackResponseMode, false, false, null, loadBalancing, 1,
+				2000, maxInflightChunks, null, -1, transport);
+		fluency = fluentdConfig.makeFluency();
+
+		char[] text = new char[messageSize];
+		Arrays.fill(text, 'x');
+		record = new HashMap<>();
+		record.put("level", "INFO");
+		record.put("logger", "SenderBenchmark");
+		record.put("message", new String(text));
+	}
+
+	/**
+	 * Flushes and closes fluency, and checks records reached the servers
+	 * @throws IOException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		fluency.close();
+		long messages = 0;
+		for (FakeForwardServer fakeServer : fakeServers) {
+			messages += fakeServer.getMessages();
+			fakeServer.close();
+		}
+		if (socketDirectory != null) {
+			Files.delete(socketDirectory);
+		}
+		if (messages == 0) {
+			throw new IllegalStateException("No chunk reached the servers");
+		}
+	}
+
+	/**
+	 * one emitting thread, waiting while the buffer is full
+	 * @throws IOException
+	 */
+	@Benchmark
+	@Threads(1)
+	public void emit() throws IOException {
+		while (true) {
+			try {
+				fluency.emit("benchmark", record);
+				return;
+			} catch (BufferFullException e) {
+				Thread.yield();
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.komamitsu.fluency.Fluency;
+
+/**
+ * Decides which events are let in under pressure.
+ *
+ * Pressure is fluency's buffer occupancy, refreshed in the background, and
+ * is raised to the INFO sampling stage while the average emit latency is
+ * above the threshold and to full when fluency reports a full buffer.
+ * Shed events are counted per level and logger and summarized periodically
+ * in a record of the appender itself.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class AdmissionController {
+
+	private static final long UPDATE_MILLIS = 100;
+	private static final long RETRY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	/* loggers counted one by one per summary interval, others are counted together */
+	private static final int MAX_TRACKED_LOGGERS = 256;
+	private static final String OTHER_LOGGERS = "<other>";
+
+	private final Fluency fluency;
+	private final long maxBufferSize;
+	private final float shedDebugAt;
+	private final float sampleInfoAt;
+	private final float shedInfoAt;
+	private final int infoSampleRate;
+	private final long latencyThresholdNanos;
+	private final long maxBlockNanos;
+	private final int summaryIntervalMillis;
+	private final ReportSink reports;
+
+	private final LongAdder emitNanos = new LongAdder();
+	private final LongAdder emits = new LongAdder();
+	private final ConcurrentMap<String, LongAdder> shedByLevel = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> shedByLogger = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> rejectedByLevel = new ConcurrentHashMap<>();
+
+	private volatile float pressure;
+	private ScheduledFuture<?> update;
+	private ScheduledFuture<?> summary;
+
+	/**
+	 * @param config
+	 * @param fluency
+	 * @param maxBufferSize
+	 * @param reports receives summary records
+	 */
+	AdmissionController(final BackpressureConfig config, final Fluency fluency, final long maxBufferSize,
+			final ReportSink reports) {
+		this.fluency = fluency;
+		this.maxBufferSize = maxBufferSize;
+		this.shedDebugAt = config.getShedDebugAt();
+		this.sampleInfoAt = config.getSampleInfoAt();
+		this.shedInfoAt = config.getShedInfoAt();
+		this.infoSampleRate = config.getInfoSampleRate();
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLatencyThresholdMillis());
+		this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxBlockMillis());
+		this.summaryIntervalMillis = config.getSummaryIntervalMillis();
+		this.reports = reports;
+	}
+
+	/**
+	 * Starts refreshing pressure and writing summaries
+	 */
+	synchronized void start() {
+		if (update != null) {
+			return;
+		}
+		update = Housekeeper.schedule(new Runnable() {
+			@Override
+			public void run() {
+				updatePressure();
+			}
+		}, UPDATE_MILLIS, TimeUnit.MILLISECONDS);
+		if (summaryIntervalMillis > 0) {
+			summary = Housekeeper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					summarize();
+				}
+			}, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops background work and writes the last summary
+	 */
+	synchronized void stop() {
+		if (update != null) {
+			update.cancel(false);
+			update = null;
+		}
+		if (summary != null) {
+			summary.cancel(false);
+			summary = null;
+		}
+		summarize();
+	}
+
+	/**
+	 * returns whether the event is let in, shed events are counted
+	 * @param level
+	 * @param loggerName
+	 * @return
+	 */
+	boolean admit(final Level level, final String loggerName) {
+		final float current = pressure;
+		if (current < shedDebugAt || level.isMoreSpecificThan(Level.WARN)) {
+			return true;
+		}
+		if (level.isLessSpecificThan(Level.DEBUG) || current >= shedInfoAt
+				|| (current >= sampleInfoAt && ThreadLocalRandom.current().nextInt(infoSampleRate) != 0)) {
+			shed(level, loggerName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * records how long one emit took
+	 * @param nanos
+	 */
+	void recordEmit(final long nanos) {
+		emitNanos.add(nanos);
+		emits.increment();
+	}
+
+	/**
+	 * Called after fluency reported a full buffer, WARN and more severe
+	 * records wait a little and are retried until maxBlockMillis passed
+	 * @param level
+	 * @param startNanos when the first attempt failed
+	 * @return true to retry, false when the record is given up
+	 */
+	boolean retryAfterFull(final Level level, final long startNanos) {
+		pressure = 1f;
+		if (level != null && level.isMoreSpecificThan(Level.WARN) && System.nanoTime() - startNanos < maxBlockNanos) {
+			LockSupport.parkNanos(RETRY_PARK_NANOS);
+			return true;
+		}
+		count(rejectedByLevel, level != null ? level.name() : Level.OFF.name());
+		return false;
+	}
+
+	/**
+	 * returns current pressure, 0 (none) to 1 (full)
+	 * @return
+	 */
+	float getPressure() {
+		return pressure;
+	}
+
+	private void shed(final Level level, final String loggerName) {
+		count(shedByLevel, level.name());
+		String logger = loggerName != null ? loggerName : "";
+		if (shedByLogger.size() >= MAX_TRACKED_LOGGERS && !shedByLogger.containsKey(logger)) {
+			logger = OTHER_LOGGERS;
+		}
+		count(shedByLogger, logger);
+	}
+
+	private static void count(final ConcurrentMap<String, LongAdder> counters, final String key) {
+		LongAdder counter = counters.get(key);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	private void updatePressure() {
+		float current = maxBufferSize > 0 ? (float) fluency.getBufferedDataSize() / maxBufferSize : 0f;
+		long count = emits.sumThenReset();
+		long nanos = emitNanos.sumThenReset();
+		if (latencyThresholdNanos > 0 && count > 0 && nanos / count >= latencyThresholdNanos) {
+			current = Math.max(current, sampleInfoAt);
+		}
+		pressure = Math.min(current, 1f);
+	}
+
+	private void summarize() {
+		Map<String, Long> shed = drain(shedByLevel);
+		Map<String, Long> rejected = drain(rejectedByLevel);
+		Map<String, Long> byLogger = drain(shedByLogger);
+		long total = 0;
+		for (Long value : shed.values()) {
+			total += value;
+		}
+		long totalRejected = 0;
+		for (Long value : rejected.values()) {
+			totalRejected += value;
+		}
+		if (total == 0 && totalRejected == 0) {
+			return;
+		}
+		Map<String, Object> details = new LinkedHashMap<>();
+		details.put("shed", shed);
+		details.put("shedByLogger", byLogger);
+		details.put("rejected", rejected);
+		details.put("pressure", pressure);
+		reports.report(Level.WARN, "Shed " + total + " and rejected " + totalRejected
+				+ " events under backpressure", details);
+	}
+
+	/* counts are approximate, increments racing with the drain go to the next summary or are lost */
+	private static Map<String, Long> drain(final ConcurrentMap<String, LongAdder> counters) {
+		Map<String, Long> values = new LinkedHashMap<>();
+		Iterator<Map.Entry<String, LongAdder>> entries = counters.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, LongAdder> entry = entries.next();
+			entries.remove();
+			long value = entry.getValue().sum();
+			if (value > 0) {
+				values.put(entry.getKey(), value);
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Aggregation of repeated events: only the first event with a given logger,
+ * level, message format and throwable type is sent per window, repeats are
+ * rolled up into one record when the window ends
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = AggregationConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = AggregationConfig.ELEMENT_TYPE, printObject = true)
+public class AggregationConfig {
+
+	/**
+	 * Aggregation plugin name
+	 */
+	public static final String PLUGIN_NAME = "Aggregation";
+
+	/**
+	 * Aggregation element type
+	 */
+	public static final String ELEMENT_TYPE = "aggregation";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_WINDOW_MILLIS = 5000;
+	private static final int DEFAULT_MAX_KEYS = 1024;
+	private static final int MAX_KEYS = 65536;
+	private static final int DEFAULT_SAMPLE_PARAMETERS = 5;
+
+	private int windowMillis = DEFAULT_WINDOW_MILLIS;
+	private int maxKeys = DEFAULT_MAX_KEYS;
+	private int sampleParameters = DEFAULT_SAMPLE_PARAMETERS;
+
+	/**
+	 * returns window length, rollups are sent at this interval
+	 * @return
+	 */
+	public int getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * returns number of distinct events aggregated per window, always a power of two
+	 * @return
+	 */
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	/**
+	 * returns max number of message parameters kept as sample of the repeats
+	 * @return
+	 */
+	public int getSampleParameters() {
+		return sampleParameters;
+	}
+
+	@Override
+	public String toString() {
+		return "AggregationConfig [windowMillis=" + windowMillis + ", maxKeys=" + maxKeys + ", sampleParameters="
+				+ sampleParameters + "]";
+	}
+
+	/**
+	 * Creates aggregation config
+	 * @param windowMillis
+	 * @param maxKeys rounded up to a power of two
+	 * @param sampleParameters
+	 * @return
+	 */
+	@PluginFactory
+	public static AggregationConfig createAggregationConfig(
+			@PluginAttribute(value = "windowMillis", defaultInt = DEFAULT_WINDOW_MILLIS) final int windowMillis,
+			@PluginAttribute(value = "maxKeys", defaultInt = DEFAULT_MAX_KEYS) final int maxKeys,
+			@PluginAttribute(value = "sampleParameters", defaultInt = DEFAULT_SAMPLE_PARAMETERS) final int sampleParameters) {
+		AggregationConfig config = new AggregationConfig();
+		if (windowMillis > 0) {
+			config.windowMillis = windowMillis;
+		} else {
+			LOGGER.error("windowMillis must be > 0, using {}", config.windowMillis);
+		}
+		if (maxKeys > 0 && maxKeys <= MAX_KEYS) {
+			config.maxKeys = Integer.highestOneBit(maxKeys) == maxKeys ? maxKeys : Integer.highestOneBit(maxKeys) << 1;
+		} else {
+			LOGGER.error("maxKeys must be > 0 and <= {}, using {}", MAX_KEYS, config.maxKeys);
+		}
+		if (sampleParameters >= 0) {
+			config.sampleParameters = sampleParameters;
+		} else {
+			LOGGER.error("sampleParameters must be >= 0, using {}", config.sampleParameters);
+		}
+		return config;
+	}
+}
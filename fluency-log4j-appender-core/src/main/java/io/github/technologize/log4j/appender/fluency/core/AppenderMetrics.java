@@ -0,0 +1,420 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.apache.logging.log4j.util.PropertiesUtil;
+import org.komamitsu.fluency.Fluency;
+
+/**
+ * Counters and latency histograms of one appender.
+ *
+ * Recording is a few striped {@link LongAdder} increments per event, all
+ * reading (JMX, periodic records) works on sums and snapshots and never
+ * slows down logging threads.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class AppenderMetrics implements AppenderMetricsMBean {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final String DOMAIN = "io.github.technologize.log4j.appender";
+
+	/* the appender of a new configuration starts before the old one stops, the newest owns the name */
+	private static final ConcurrentMap<ObjectName, AppenderMetrics> REGISTERED = new ConcurrentHashMap<>();
+
+	private final LongAdder appended = new LongAdder();
+	private final LongAdder suppressed = new LongAdder();
+	private final LongAdder emitted = new LongAdder();
+	private final LongAdder emittedBytes = new LongAdder();
+	private final LongAdder emitErrors = new LongAdder();
+	private final LongAdder droppedReports = new LongAdder();
+	private final LatencyHistogram appendNanos = new LatencyHistogram();
+	private final LatencyHistogram emitNanos = new LatencyHistogram();
+	private final LatencyHistogram handOffNanos = new LatencyHistogram();
+	private final LatencyHistogram flushNanos = new LatencyHistogram();
+
+	private final Fluency fluency;
+	private final long maxBufferSize;
+	private final boolean jvmHeapBufferMode;
+	private final boolean sizedRecords;
+	private final AsyncEmitter asyncEmitter;
+	private final ObjectName objectName;
+	private final int reportIntervalMillis;
+	private final ReportSink reports;
+
+	private ScheduledFuture<?> reportTask;
+	private Interval interval;
+
+	/**
+	 * @param config
+	 * @param appenderType appender class name used in the MBean name
+	 * @param appenderName
+	 * @param fluency
+	 * @param maxBufferSize
+	 * @param jvmHeapBufferMode
+	 * @param sizedRecords false when records are emitted as maps and their size is not known
+	 * @param asyncEmitter null when there is no async queue
+	 * @param reports receives periodic metrics records, null when not sent
+	 */
+	AppenderMetrics(final MetricsConfig config, final String appenderType, final String appenderName,
+			final Fluency fluency, final long maxBufferSize, final boolean jvmHeapBufferMode,
+			final boolean sizedRecords, final AsyncEmitter asyncEmitter, final ReportSink reports) {
+		this.fluency = fluency;
+		this.maxBufferSize = maxBufferSize;
+		this.jvmHeapBufferMode = jvmHeapBufferMode;
+		this.sizedRecords = sizedRecords;
+		this.asyncEmitter = asyncEmitter;
+		this.reportIntervalMillis = config.getReportIntervalMillis();
+		this.reports = reports;
+		this.objectName = config.isJmx() && !PropertiesUtil.getProperties().getBooleanProperty("log4j2.disable.jmx")
+				? objectName(appenderType, appenderName)
+				: null;
+	}
+
+	private static ObjectName objectName(final String appenderType, final String appenderName) {
+		try {
+			return new ObjectName(DOMAIN + ":type=" + appenderType + ",name=" + ObjectName.quote(appenderName));
+		} catch (JMException e) {
+			LOGGER.error("Metrics of appender {} are not registered: {}", appenderName, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Registers the MBean and starts sending metrics records
+	 */
+	synchronized void start() {
+		if (objectName != null) {
+			register();
+		}
+		if (reports != null && reportTask == null) {
+			interval = new Interval();
+			reportTask = Housekeeper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					report();
+				}
+			}, reportIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends the last metrics record and unregisters the MBean
+	 */
+	synchronized void stop() {
+		if (reportTask != null) {
+			reportTask.cancel(false);
+			reportTask = null;
+			report();
+		}
+		if (objectName != null && REGISTERED.remove(objectName, this)) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				LOGGER.warn("Could not unregister {}: {}", objectName, e.getMessage());
+			}
+		}
+	}
+
+	private void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			REGISTERED.put(objectName, this);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(new StandardMBean(this, AppenderMetricsMBean.class), objectName);
+		} catch (JMException e) {
+			REGISTERED.remove(objectName, this);
+			LOGGER.error("Could not register {}: {}", objectName, e.getMessage());
+		}
+	}
+
+	/**
+	 * records one append call
+	 * @param accepted false when the event was suppressed before encoding
+	 * @param nanos
+	 */
+	void recordAppend(final boolean accepted, final long nanos) {
+		appended.increment();
+		if (!accepted) {
+			suppressed.increment();
+		}
+		appendNanos.record(nanos);
+	}
+
+	/**
+	 * records one record accepted by fluency
+	 * @param bytes size of the record, 0 when not known
+	 * @param nanos
+	 */
+	void recordEmit(final int bytes, final long nanos) {
+		emitted.increment();
+		if (bytes > 0) {
+			emittedBytes.add(bytes);
+		}
+		emitNanos.record(nanos);
+	}
+
+	/**
+	 * records one record fluency did not accept
+	 */
+	void recordEmitError() {
+		emitErrors.increment();
+	}
+
+	/**
+	 * records one report record dropped because fluency's buffer was full
+	 */
+	void recordReportDropped() {
+		droppedReports.increment();
+	}
+
+	/**
+	 * records one batch hand-off
+	 * @param nanos
+	 */
+	void recordHandOff(final long nanos) {
+		handOffNanos.record(nanos);
+	}
+
+	/**
+	 * records one flush on stop
+	 * @param nanos
+	 */
+	void recordFlush(final long nanos) {
+		flushNanos.record(nanos);
+	}
+
+	@Override
+	public long getAppendedEvents() {
+		return appended.sum();
+	}
+
+	@Override
+	public long getSuppressedEvents() {
+		return suppressed.sum();
+	}
+
+	@Override
+	public long getQueueDroppedRecords() {
+		return asyncEmitter != null ? asyncEmitter.getDropped() : 0;
+	}
+
+	@Override
+	public long getEmittedRecords() {
+		return emitted.sum();
+	}
+
+	@Override
+	public long getEmittedBytes() {
+		return sizedRecords ? emittedBytes.sum() : -1;
+	}
+
+	@Override
+	public long getEmitErrors() {
+		return emitErrors.sum();
+	}
+
+	@Override
+	public long getDroppedReports() {
+		return droppedReports.sum();
+	}
+
+	@Override
+	public long getBufferedBytes() {
+		return fluency != null ? fluency.getBufferedDataSize() : 0;
+	}
+
+	@Override
+	public double getBufferOccupancy() {
+		return maxBufferSize > 0 ? (double) getBufferedBytes() / maxBufferSize : 0;
+	}
+
+	@Override
+	public long getAllocatedBufferBytes() {
+		return fluency != null ? fluency.getAllocatedBufferSize() : 0;
+	}
+
+	@Override
+	public boolean isJvmHeapBufferMode() {
+		return jvmHeapBufferMode;
+	}
+
+	@Override
+	public long getDirectMemoryUsed() {
+		return DirectMemory.used();
+	}
+
+	@Override
+	public long getDirectMemoryMax() {
+		return DirectMemory.max();
+	}
+
+	@Override
+	public int getAsyncQueueSize() {
+		return asyncEmitter != null ? asyncEmitter.size() : 0;
+	}
+
+	@Override
+	public long getAppendNanosP50() {
+		return LatencyHistogram.percentile(appendNanos.snapshot(), null, 0.5);
+	}
+
+	@Override
+	public long getAppendNanosP99() {
+		return LatencyHistogram.percentile(appendNanos.snapshot(), null, 0.99);
+	}
+
+	@Override
+	public long getAppendNanosP999() {
+		return LatencyHistogram.percentile(appendNanos.snapshot(), null, 0.999);
+	}
+
+	@Override
+	public long getAppendNanosMax() {
+		return LatencyHistogram.percentile(appendNanos.snapshot(), null, 1);
+	}
+
+	@Override
+	public long getEmitNanosP50() {
+		return LatencyHistogram.percentile(emitNanos.snapshot(), null, 0.5);
+	}
+
+	@Override
+	public long getEmitNanosP99() {
+		return LatencyHistogram.percentile(emitNanos.snapshot(), null, 0.99);
+	}
+
+	@Override
+	public long getEmitNanosMax() {
+		return LatencyHistogram.percentile(emitNanos.snapshot(), null, 1);
+	}
+
+	@Override
+	public long getHandOffNanosP50() {
+		return LatencyHistogram.percentile(handOffNanos.snapshot(), null, 0.5);
+	}
+
+	@Override
+	public long getHandOffNanosP99() {
+		return LatencyHistogram.percentile(handOffNanos.snapshot(), null, 0.99);
+	}
+
+	@Override
+	public long getHandOffNanosMax() {
+		return LatencyHistogram.percentile(handOffNanos.snapshot(), null, 1);
+	}
+
+	@Override
+	public long getFlushNanosP50() {
+		return LatencyHistogram.percentile(flushNanos.snapshot(), null, 0.5);
+	}
+
+	@Override
+	public long getFlushNanosP99() {
+		return LatencyHistogram.percentile(flushNanos.snapshot(), null, 0.99);
+	}
+
+	@Override
+	public long getFlushNanosMax() {
+		return LatencyHistogram.percentile(flushNanos.snapshot(), null, 1);
+	}
+
+	/* sends the numbers of the interval since the last record */
+	private void report() {
+		Interval previous = interval;
+		Interval current = new Interval();
+		interval = current;
+		double seconds = Math.max(1, current.nanoTime - previous.nanoTime) / 1e9;
+		long events = current.appended - previous.appended;
+		long bytes = current.emittedBytes - previous.emittedBytes;
+		Map<String, Object> details = new LinkedHashMap<>();
+		details.put("intervalMillis", TimeUnit.NANOSECONDS.toMillis(current.nanoTime - previous.nanoTime));
+		details.put("appendedEvents", events);
+		details.put("suppressedEvents", current.suppressed - previous.suppressed);
+		details.put("queueDroppedRecords", current.queueDropped - previous.queueDropped);
+		details.put("emittedRecords", current.emitted - previous.emitted);
+		if (sizedRecords) {
+			details.put("emittedBytes", bytes);
+		}
+		details.put("emitErrors", current.emitErrors - previous.emitErrors);
+		details.put("droppedReports", current.droppedReports - previous.droppedReports);
+		details.put("eventsPerSecond", Math.round(events / seconds));
+		if (sizedRecords) {
+			details.put("bytesPerSecond", Math.round(bytes / seconds));
+		}
+		details.put("bufferedBytes", getBufferedBytes());
+		details.put("bufferOccupancy", getBufferOccupancy());
+		details.put("allocatedBufferBytes", getAllocatedBufferBytes());
+		if (!jvmHeapBufferMode) {
+			details.put("directMemoryUsed", getDirectMemoryUsed());
+		}
+		details.put("asyncQueueSize", getAsyncQueueSize());
+		details.put("appendNanos", percentiles(current.appendNanos, previous.appendNanos));
+		details.put("emitNanos", percentiles(current.emitNanos, previous.emitNanos));
+		details.put("handOffNanos", percentiles(current.handOffNanos, previous.handOffNanos));
+		details.put("flushNanos", percentiles(current.flushNanos, previous.flushNanos));
+		reports.report(Level.INFO, "appender metrics", details);
+	}
+
+	private static Map<String, Object> percentiles(final long[] snapshot, final long[] previous) {
+		Map<String, Object> percentiles = new LinkedHashMap<>();
+		percentiles.put("count", LatencyHistogram.count(snapshot, previous));
+		percentiles.put("p50", LatencyHistogram.percentile(snapshot, previous, 0.5));
+		percentiles.put("p99", LatencyHistogram.percentile(snapshot, previous, 0.99));
+		percentiles.put("p999", LatencyHistogram.percentile(snapshot, previous, 0.999));
+		percentiles.put("max", LatencyHistogram.percentile(snapshot, previous, 1));
+		return percentiles;
+	}
+
+	/**
+	 * Totals at the start of a report interval
+	 */
+	private final class Interval {
+		private final long nanoTime = System.nanoTime();
+		private final long appended = getAppendedEvents();
+		private final long suppressed = getSuppressedEvents();
+		private final long queueDropped = getQueueDroppedRecords();
+		private final long emitted = getEmittedRecords();
+		private final long emittedBytes = getEmittedBytes();
+		private final long emitErrors = getEmitErrors();
+		private final long droppedReports = getDroppedReports();
+		private final long[] appendNanos = AppenderMetrics.this.appendNanos.snapshot();
+		private final long[] emitNanos = AppenderMetrics.this.emitNanos.snapshot();
+		private final long[] handOffNanos = AppenderMetrics.this.handOffNanos.snapshot();
+		private final long[] flushNanos = AppenderMetrics.this.flushNanos.snapshot();
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+/**
+ * JMX view of the metrics of one appender, registered as
+ * io.github.technologize.log4j.appender:type=&lt;appender class&gt;,name=&lt;appender name&gt;.
+ * Counts are totals since the appender started, latencies are in
+ * nanoseconds over the same period.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public interface AppenderMetricsMBean {
+
+	/**
+	 * returns number of events passed to the appender
+	 * @return
+	 */
+	long getAppendedEvents();
+
+	/**
+	 * returns number of events shed, aggregated or rate limited before encoding
+	 * @return
+	 */
+	long getSuppressedEvents();
+
+	/**
+	 * returns number of records dropped because the async queue was full
+	 * @return
+	 */
+	long getQueueDroppedRecords();
+
+	/**
+	 * returns number of records emitted into fluency
+	 * @return
+	 */
+	long getEmittedRecords();
+
+	/**
+	 * returns number of bytes emitted into fluency, MessagePack encoded records only,
+	 * -1 when records are emitted as maps (encoding MAP) and their size is unknown
+	 * @return
+	 */
+	long getEmittedBytes();
+
+	/**
+	 * returns number of records fluency did not accept
+	 * @return
+	 */
+	long getEmitErrors();
+
+	/**
+	 * returns number of appender reports dropped because fluency's buffer was full
+	 * @return
+	 */
+	long getDroppedReports();
+
+	/**
+	 * returns number of bytes in fluency's buffer
+	 * @return
+	 */
+	long getBufferedBytes();
+
+	/**
+	 * returns fluency's buffer occupancy 0..1
+	 * @return
+	 */
+	double getBufferOccupancy();
+
+	/**
+	 * returns bytes of buffer chunks fluency has allocated, in use or pooled
+	 * @return
+	 */
+	long getAllocatedBufferBytes();
+
+	/**
+	 * returns whether fluency's buffer chunks are on the JVM heap
+	 * @return
+	 */
+	boolean isJvmHeapBufferMode();
+
+	/**
+	 * returns bytes of direct memory in use by the whole JVM, -1 when unknown
+	 * @return
+	 */
+	long getDirectMemoryUsed();
+
+	/**
+	 * returns max bytes of direct memory
+	 * @return
+	 */
+	long getDirectMemoryMax();
+
+	/**
+	 * returns number of slots waiting in the async queue
+	 * @return
+	 */
+	int getAsyncQueueSize();
+
+	/**
+	 * returns median time spent in append
+	 * @return
+	 */
+	long getAppendNanosP50();
+
+	/**
+	 * returns 99th percentile of time spent in append
+	 * @return
+	 */
+	long getAppendNanosP99();
+
+	/**
+	 * returns 99.9th percentile of time spent in append
+	 * @return
+	 */
+	long getAppendNanosP999();
+
+	/**
+	 * returns max time spent in append
+	 * @return
+	 */
+	long getAppendNanosMax();
+
+	/**
+	 * returns median time fluency took to accept a record
+	 * @return
+	 */
+	long getEmitNanosP50();
+
+	/**
+	 * returns 99th percentile of time fluency took to accept a record
+	 * @return
+	 */
+	long getEmitNanosP99();
+
+	/**
+	 * returns max time fluency took to accept a record
+	 * @return
+	 */
+	long getEmitNanosMax();
+
+	/**
+	 * returns median time a batch hand-off took
+	 * @return
+	 */
+	long getHandOffNanosP50();
+
+	/**
+	 * returns 99th percentile of time a batch hand-off took
+	 * @return
+	 */
+	long getHandOffNanosP99();
+
+	/**
+	 * returns max time a batch hand-off took
+	 * @return
+	 */
+	long getHandOffNanosMax();
+
+	/**
+	 * returns median time the flush on stop took
+	 * @return
+	 */
+	long getFlushNanosP50();
+
+	/**
+	 * returns 99th percentile of time the flush on stop took
+	 * @return
+	 */
+	long getFlushNanosP99();
+
+	/**
+	 * returns max time the flush on stop took
+	 * @return
+	 */
+	long getFlushNanosMax();
+}
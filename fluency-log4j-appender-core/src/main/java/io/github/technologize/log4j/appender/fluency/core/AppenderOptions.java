@@ -0,0 +1,205 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+/**
+ * Optional elements of a {@link FluencyAppender}, every one left out (null)
+ * keeps the appender's plain behaviour. New elements are added here so that
+ * the appender constructors stay as they are.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public final class AppenderOptions {
+
+	private static final AppenderOptions NONE = newBuilder().build();
+
+	private final RecordConfig recordConfig;
+	private final AsyncQueueConfig asyncQueueConfig;
+	private final BatchingConfig batchingConfig;
+	private final BackpressureConfig backpressureConfig;
+	private final RateLimitConfig[] rateLimits;
+	private final AggregationConfig aggregationConfig;
+	private final MetricsConfig metricsConfig;
+
+	private AppenderOptions(final Builder builder) {
+		this.recordConfig = builder.recordConfig;
+		this.asyncQueueConfig = builder.asyncQueueConfig;
+		this.batchingConfig = builder.batchingConfig;
+		this.backpressureConfig = builder.backpressureConfig;
+		this.rateLimits = builder.rateLimits;
+		this.aggregationConfig = builder.aggregationConfig;
+		this.metricsConfig = builder.metricsConfig;
+	}
+
+	/**
+	 * returns options without any element
+	 * @return
+	 */
+	public static AppenderOptions none() {
+		return NONE;
+	}
+
+	/**
+	 * returns a builder without any element
+	 * @return
+	 */
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	/**
+	 * returns record settings, null for the defaults
+	 * @return
+	 */
+	public RecordConfig getRecordConfig() {
+		return recordConfig;
+	}
+
+	/**
+	 * returns asynchronous stage, null to emit on the logging thread
+	 * @return
+	 */
+	public AsyncQueueConfig getAsyncQueueConfig() {
+		return asyncQueueConfig;
+	}
+
+	/**
+	 * returns striped batches, null to hand over every record on its own
+	 * @return
+	 */
+	public BatchingConfig getBatchingConfig() {
+		return batchingConfig;
+	}
+
+	/**
+	 * returns admission control, null to let every event in
+	 * @return
+	 */
+	public BackpressureConfig getBackpressureConfig() {
+		return backpressureConfig;
+	}
+
+	/**
+	 * returns rate limits per logger and message template, null or empty for none
+	 * @return
+	 */
+	public RateLimitConfig[] getRateLimits() {
+		return rateLimits;
+	}
+
+	/**
+	 * returns aggregation of repeated events, null to send every event
+	 * @return
+	 */
+	public AggregationConfig getAggregationConfig() {
+		return aggregationConfig;
+	}
+
+	/**
+	 * returns metrics of the appender, null for none
+	 * @return
+	 */
+	public MetricsConfig getMetricsConfig() {
+		return metricsConfig;
+	}
+
+	/**
+	 * Collects the elements, all are optional
+	 */
+	public static final class Builder {
+		private RecordConfig recordConfig;
+		private AsyncQueueConfig asyncQueueConfig;
+		private BatchingConfig batchingConfig;
+		private BackpressureConfig backpressureConfig;
+		private RateLimitConfig[] rateLimits;
+		private AggregationConfig aggregationConfig;
+		private MetricsConfig metricsConfig;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param recordConfig
+		 * @return
+		 */
+		public Builder setRecordConfig(final RecordConfig recordConfig) {
+			this.recordConfig = recordConfig;
+			return this;
+		}
+
+		/**
+		 * @param asyncQueueConfig
+		 * @return
+		 */
+		public Builder setAsyncQueueConfig(final AsyncQueueConfig asyncQueueConfig) {
+			this.asyncQueueConfig = asyncQueueConfig;
+			return this;
+		}
+
+		/**
+		 * @param batchingConfig
+		 * @return
+		 */
+		public Builder setBatchingConfig(final BatchingConfig batchingConfig) {
+			this.batchingConfig = batchingConfig;
+			return this;
+		}
+
+		/**
+		 * @param backpressureConfig
+		 * @return
+		 */
+		public Builder setBackpressureConfig(final BackpressureConfig backpressureConfig) {
+			this.backpressureConfig = backpressureConfig;
+			return this;
+		}
+
+		/**
+		 * @param rateLimits
+		 * @return
+		 */
+		public Builder setRateLimits(final RateLimitConfig[] rateLimits) {
+			this.rateLimits = rateLimits;
+			return this;
+		}
+
+		/**
+		 * @param aggregationConfig
+		 * @return
+		 */
+		public Builder setAggregationConfig(final AggregationConfig aggregationConfig) {
+			this.aggregationConfig = aggregationConfig;
+			return this;
+		}
+
+		/**
+		 * @param metricsConfig
+		 * @return
+		 */
+		public Builder setMetricsConfig(final MetricsConfig metricsConfig) {
+			this.metricsConfig = metricsConfig;
+			return this;
+		}
+
+		/**
+		 * @return
+		 */
+		public AppenderOptions build() {
+			return new AppenderOptions(this);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Asynchronous stage of an appender: logging threads put encoded records
+ * into a {@link RecordRing}, one background thread takes them out in
+ * batches and emits them, so logging threads never wait on fluency's
+ * buffer.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class AsyncEmitter implements Runnable {
+
+	private static final StatusLogger LOGGER = StatusLogger.getLogger();
+
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	/* slots drained before the emitter checks whether it was asked to stop */
+	private static final int BATCH_SIZE = 256;
+	/* idle rounds spent spinning, then yielding, before parking */
+	private static final int SPIN_ROUNDS = 100;
+	private static final int YIELD_ROUNDS = 200;
+
+	private final String name;
+	private final RecordRing ring;
+	private final RecordSink sink;
+	private final AsyncQueueConfig.WaitStrategy waitStrategy;
+	private final AsyncQueueConfig.FullPolicy fullPolicy;
+	private final Level discardLevel;
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean running;
+	private volatile boolean warnedFull;
+	private volatile Thread thread;
+
+	/**
+	 * @param name appender name
+	 * @param config
+	 * @param sink
+	 */
+	AsyncEmitter(final String name, final AsyncQueueConfig config, final RecordSink sink) {
+		this.name = name;
+		this.ring = new RecordRing(config.getCapacity());
+		this.sink = sink;
+		this.waitStrategy = config.getWaitStrategy();
+		this.fullPolicy = config.getFullPolicy();
+		this.discardLevel = config.getDiscardLevel();
+	}
+
+	/**
+	 * Starts the emitting thread
+	 */
+	synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		ThreadFactory threadFactory = Log4jThreadFactory.createDaemonThreadFactory("Fluency-" + name);
+		thread = threadFactory.newThread(this);
+		thread.start();
+	}
+
+	/**
+	 * Stops the emitting thread once the ring is drained or the timeout elapsed
+	 * @param timeout
+	 * @param timeUnit
+	 * @return number of records left in the ring
+	 */
+	synchronized int stop(final long timeout, final TimeUnit timeUnit) {
+		if (thread == null) {
+			return ring.size();
+		}
+		running = false;
+		try {
+			if (timeout > 0) {
+				timeUnit.timedJoin(thread, timeout);
+			} else {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			thread.interrupt();
+		}
+		thread = null;
+		return ring.size();
+	}
+
+	/**
+	 * Queues the record, applies the full policy when there is no free slot
+	 * @param record
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level
+	 * @return false when the record was dropped
+	 */
+	boolean enqueue(final MessagePackBuffer record, final long epochSecond, final int nanoOfSecond,
+			final Level level) {
+		if (ring.offer(record, epochSecond, nanoOfSecond, level)) {
+			return true;
+		}
+		if (!mayWait(level)) {
+			drop(1);
+			return false;
+		}
+		int attempt = 0;
+		while (!ring.offer(record, epochSecond, nanoOfSecond, level)) {
+			if (!running) {
+				drop(1);
+				return false;
+			}
+			idle(attempt);
+			attempt = Math.min(attempt + 1, YIELD_ROUNDS);
+		}
+		return true;
+	}
+
+	/**
+	 * Queues all records of the batch in one slot if one is free, never waits
+	 * @param batch
+	 * @return false when the ring is full, the batch is left as it is
+	 */
+	boolean offer(final RecordBatch batch) {
+		return ring.offer(batch);
+	}
+
+	/**
+	 * Queues all records of the batch in one slot, the full policy applies
+	 * to the batch's most severe level
+	 * @param batch
+	 * @return false when the batch was dropped
+	 */
+	boolean enqueue(final RecordBatch batch) {
+		if (ring.offer(batch)) {
+			return true;
+		}
+		if (!mayWait(batch.mostSevere())) {
+			drop(batch.count());
+			return false;
+		}
+		int attempt = 0;
+		while (!ring.offer(batch)) {
+			if (!running) {
+				drop(batch.count());
+				return false;
+			}
+			idle(attempt);
+			attempt = Math.min(attempt + 1, YIELD_ROUNDS);
+		}
+		return true;
+	}
+
+	private boolean mayWait(final Level level) {
+		if (fullPolicy == AsyncQueueConfig.FullPolicy.DROP_NEWEST) {
+			return false;
+		}
+		if (fullPolicy == AsyncQueueConfig.FullPolicy.DROP_LOWEST_LEVEL && level != null
+				&& level.isLessSpecificThan(discardLevel)) {
+			return false;
+		}
+		/* the emitter itself must never wait for its own ring */
+		return Thread.currentThread() != thread;
+	}
+
+	/**
+	 * returns number of records dropped because the ring was full
+	 * @return
+	 */
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * returns number of slots waiting to be emitted
+	 * @return
+	 */
+	int size() {
+		return ring.size();
+	}
+
+	@Override
+	public void run() {
+		int idleRounds = 0;
+		while (running) {
+			if (drain(BATCH_SIZE) > 0) {
+				idleRounds = 0;
+			} else {
+				idle(idleRounds);
+				idleRounds = Math.min(idleRounds + 1, YIELD_ROUNDS);
+			}
+		}
+		/* emit what was queued before stop */
+		int drained;
+		do {
+			drained = drain(BATCH_SIZE);
+		} while (drained > 0 && !Thread.currentThread().isInterrupted());
+	}
+
+	private int drain(final int max) {
+		int count = 0;
+		RecordBatch slot;
+		while (count < max && (slot = ring.peek()) != null) {
+			slot.emitTo(sink);
+			ring.release();
+			count++;
+		}
+		return count;
+	}
+
+	private void drop(final int records) {
+		dropped.add(records);
+		if (!warnedFull) {
+			warnedFull = true;
+			LOGGER.warn("Async queue of appender {} is full, events are dropped ({} policy)", name, fullPolicy);
+		}
+	}
+
+	private void idle(final int attempt) {
+		switch (waitStrategy) {
+		case SPIN:
+			break;
+		case YIELD:
+			Thread.yield();
+			break;
+		default:
+			/* spin and yield a little before parking, a burst is often followed by more events */
+			if (attempt < SPIN_ROUNDS) {
+				break;
+			} else if (attempt < YIELD_ROUNDS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			break;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Settings of the asynchronous stage between the logging threads and
+ * fluency: encoded records are put into a preallocated ring and emitted by
+ * one background thread
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = AsyncQueueConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = AsyncQueueConfig.ELEMENT_TYPE, printObject = true)
+public class AsyncQueueConfig {
+
+	/**
+	 * AsyncQueue plugin name
+	 */
+	public static final String PLUGIN_NAME = "AsyncQueue";
+
+	/**
+	 * AsyncQueue element type
+	 */
+	public static final String ELEMENT_TYPE = "asyncQueue";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_CAPACITY = 8192;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/**
+	 * How a thread waits for records (emitter) or for free slots (blocked producers)
+	 */
+	public enum WaitStrategy {
+		/**
+		 * Busy spins, lowest latency, burns a core
+		 */
+		SPIN,
+		/**
+		 * Yields the CPU between attempts
+		 */
+		YIELD,
+		/**
+		 * Parks for a short time between attempts
+		 */
+		PARK
+	}
+
+	/**
+	 * What happens to an event when the ring is full
+	 */
+	public enum FullPolicy {
+		/**
+		 * Logging thread waits for a free slot
+		 */
+		BLOCK,
+		/**
+		 * Events at discardLevel or less severe are dropped, others wait for a free slot
+		 */
+		DROP_LOWEST_LEVEL,
+		/**
+		 * The event is dropped
+		 */
+		DROP_NEWEST
+	}
+
+	private int capacity = DEFAULT_CAPACITY;
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+	private FullPolicy fullPolicy = FullPolicy.BLOCK;
+	private Level discardLevel = Level.INFO;
+
+	/**
+	 * returns number of slots in the ring, always a power of two
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * returns wait strategy
+	 * @return
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * returns policy for a full ring
+	 * @return
+	 */
+	public FullPolicy getFullPolicy() {
+		return fullPolicy;
+	}
+
+	/**
+	 * returns most severe level dropped by {@link FullPolicy#DROP_LOWEST_LEVEL}
+	 * @return
+	 */
+	public Level getDiscardLevel() {
+		return discardLevel;
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncQueueConfig [capacity=" + capacity + ", waitStrategy=" + waitStrategy + ", fullPolicy="
+				+ fullPolicy + ", discardLevel=" + discardLevel + "]";
+	}
+
+	/**
+	 * Creates async queue config
+	 * @param capacity rounded up to the next power of two
+	 * @param waitStrategy
+	 * @param fullPolicy
+	 * @param discardLevel
+	 * @return
+	 */
+	@PluginFactory
+	public static AsyncQueueConfig createAsyncQueueConfig(
+			@PluginAttribute(value = "capacity", defaultInt = DEFAULT_CAPACITY) final int capacity,
+			@PluginAttribute(value = "waitStrategy", defaultString = "PARK") final String waitStrategy,
+			@PluginAttribute(value = "fullPolicy", defaultString = "BLOCK") final String fullPolicy,
+			@PluginAttribute(value = "discardLevel", defaultString = "INFO") final String discardLevel) {
+		AsyncQueueConfig config = new AsyncQueueConfig();
+		if (capacity > 0 && capacity <= MAX_CAPACITY) {
+			config.capacity = Integer.highestOneBit(capacity) == capacity ? capacity
+					: Integer.highestOneBit(capacity) << 1;
+		} else {
+			LOGGER.error("capacity must be > 0 and <= {}, using {}", MAX_CAPACITY, config.capacity);
+		}
+		config.waitStrategy = ConfigValues.parseEnum(WaitStrategy.class, "waitStrategy", waitStrategy, config.waitStrategy);
+		config.fullPolicy = ConfigValues.parseEnum(FullPolicy.class, "fullPolicy", fullPolicy, config.fullPolicy);
+		config.discardLevel = ConfigValues.parseLevel("discardLevel", discardLevel, config.discardLevel);
+		return config;
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Settings of the admission control: as fluency's buffer fills up or emits
+ * get slow, TRACE/DEBUG events are shed first, then INFO events are
+ * sampled and finally shed, WARN and more severe events are always kept
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = BackpressureConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = BackpressureConfig.ELEMENT_TYPE, printObject = true)
+public class BackpressureConfig {
+
+	/**
+	 * Backpressure plugin name
+	 */
+	public static final String PLUGIN_NAME = "Backpressure";
+
+	/**
+	 * Backpressure element type
+	 */
+	public static final String ELEMENT_TYPE = "backpressure";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final float DEFAULT_SHED_DEBUG_AT = 0.5f;
+	private static final float DEFAULT_SAMPLE_INFO_AT = 0.7f;
+	private static final float DEFAULT_SHED_INFO_AT = 0.9f;
+	private static final int DEFAULT_INFO_SAMPLE_RATE = 10;
+	private static final int DEFAULT_LATENCY_THRESHOLD_MILLIS = 100;
+	private static final int DEFAULT_MAX_BLOCK_MILLIS = 500;
+	private static final int DEFAULT_SUMMARY_INTERVAL_MILLIS = 10000;
+
+	private float shedDebugAt = DEFAULT_SHED_DEBUG_AT;
+	private float sampleInfoAt = DEFAULT_SAMPLE_INFO_AT;
+	private float shedInfoAt = DEFAULT_SHED_INFO_AT;
+	private int infoSampleRate = DEFAULT_INFO_SAMPLE_RATE;
+	private int latencyThresholdMillis = DEFAULT_LATENCY_THRESHOLD_MILLIS;
+	private int maxBlockMillis = DEFAULT_MAX_BLOCK_MILLIS;
+	private int summaryIntervalMillis = DEFAULT_SUMMARY_INTERVAL_MILLIS;
+
+	/**
+	 * returns buffer occupancy (0..1) from which TRACE/DEBUG events are shed
+	 * @return
+	 */
+	public float getShedDebugAt() {
+		return shedDebugAt;
+	}
+
+	/**
+	 * returns buffer occupancy (0..1) from which INFO events are sampled
+	 * @return
+	 */
+	public float getSampleInfoAt() {
+		return sampleInfoAt;
+	}
+
+	/**
+	 * returns buffer occupancy (0..1) from which INFO events are shed
+	 * @return
+	 */
+	public float getShedInfoAt() {
+		return shedInfoAt;
+	}
+
+	/**
+	 * returns N of keeping one in N INFO events while sampling
+	 * @return
+	 */
+	public int getInfoSampleRate() {
+		return infoSampleRate;
+	}
+
+	/**
+	 * returns average emit latency from which INFO events are sampled
+	 * regardless of occupancy, 0 when latency is not considered
+	 * @return
+	 */
+	public int getLatencyThresholdMillis() {
+		return latencyThresholdMillis;
+	}
+
+	/**
+	 * returns how long WARN and more severe events wait for space in a full buffer
+	 * @return
+	 */
+	public int getMaxBlockMillis() {
+		return maxBlockMillis;
+	}
+
+	/**
+	 * returns interval of summary records about shed events, 0 for none
+	 * @return
+	 */
+	public int getSummaryIntervalMillis() {
+		return summaryIntervalMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "BackpressureConfig [shedDebugAt=" + shedDebugAt + ", sampleInfoAt=" + sampleInfoAt + ", shedInfoAt="
+				+ shedInfoAt + ", infoSampleRate=" + infoSampleRate + ", latencyThresholdMillis="
+				+ latencyThresholdMillis + ", maxBlockMillis=" + maxBlockMillis + ", summaryIntervalMillis="
+				+ summaryIntervalMillis + "]";
+	}
+
+	/**
+	 * Creates backpressure config
+	 * @param shedDebugAt
+	 * @param sampleInfoAt
+	 * @param shedInfoAt
+	 * @param infoSampleRate
+	 * @param latencyThresholdMillis
+	 * @param maxBlockMillis
+	 * @param summaryIntervalMillis
+	 * @return
+	 */
+	@PluginFactory
+	public static BackpressureConfig createBackpressureConfig(
+			@PluginAttribute(value = "shedDebugAt", defaultFloat = DEFAULT_SHED_DEBUG_AT) final float shedDebugAt,
+			@PluginAttribute(value = "sampleInfoAt", defaultFloat = DEFAULT_SAMPLE_INFO_AT) final float sampleInfoAt,
+			@PluginAttribute(value = "shedInfoAt", defaultFloat = DEFAULT_SHED_INFO_AT) final float shedInfoAt,
+			@PluginAttribute(value = "infoSampleRate", defaultInt = DEFAULT_INFO_SAMPLE_RATE) final int infoSampleRate,
+			@PluginAttribute(value = "latencyThresholdMillis", defaultInt = DEFAULT_LATENCY_THRESHOLD_MILLIS) final int latencyThresholdMillis,
+			@PluginAttribute(value = "maxBlockMillis", defaultInt = DEFAULT_MAX_BLOCK_MILLIS) final int maxBlockMillis,
+			@PluginAttribute(value = "summaryIntervalMillis", defaultInt = DEFAULT_SUMMARY_INTERVAL_MILLIS) final int summaryIntervalMillis) {
+		BackpressureConfig config = new BackpressureConfig();
+		if (0 < shedDebugAt && shedDebugAt <= sampleInfoAt && sampleInfoAt <= shedInfoAt && shedInfoAt <= 1) {
+			config.shedDebugAt = shedDebugAt;
+			config.sampleInfoAt = sampleInfoAt;
+			config.shedInfoAt = shedInfoAt;
+		} else {
+			LOGGER.error("Expected 0 < shedDebugAt <= sampleInfoAt <= shedInfoAt <= 1, using {}, {}, {}",
+					config.shedDebugAt, config.sampleInfoAt, config.shedInfoAt);
+		}
+		if (infoSampleRate > 0) {
+			config.infoSampleRate = infoSampleRate;
+		} else {
+			LOGGER.error("infoSampleRate must be > 0, using {}", config.infoSampleRate);
+		}
+		if (latencyThresholdMillis >= 0) {
+			config.latencyThresholdMillis = latencyThresholdMillis;
+		} else {
+			LOGGER.error("latencyThresholdMillis must be >= 0, using {}", config.latencyThresholdMillis);
+		}
+		if (maxBlockMillis >= 0) {
+			config.maxBlockMillis = maxBlockMillis;
+		} else {
+			LOGGER.error("maxBlockMillis must be >= 0, using {}", config.maxBlockMillis);
+		}
+		if (summaryIntervalMillis >= 0) {
+			config.summaryIntervalMillis = summaryIntervalMillis;
+		} else {
+			LOGGER.error("summaryIntervalMillis must be >= 0, using {}", config.summaryIntervalMillis);
+		}
+		return config;
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Settings of the striped batches: encoded records are collected per stripe
+ * and handed over as a whole when a batch is big or old enough
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = BatchingConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = BatchingConfig.ELEMENT_TYPE, printObject = true)
+public class BatchingConfig {
+
+	/**
+	 * Batching plugin name
+	 */
+	public static final String PLUGIN_NAME = "Batching";
+
+	/**
+	 * Batching element type
+	 */
+	public static final String ELEMENT_TYPE = "batching";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_MAX_RECORDS = 64;
+	private static final int DEFAULT_MAX_BYTES = 64 * 1024;
+	private static final int DEFAULT_MAX_AGE_MILLIS = 100;
+	private static final int MAX_STRIPES = 1024;
+
+	private int stripes;
+	private int maxRecords = DEFAULT_MAX_RECORDS;
+	private int maxBytes = DEFAULT_MAX_BYTES;
+	private int maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
+	/**
+	 * returns number of stripes, always a power of two
+	 * @return
+	 */
+	public int getStripes() {
+		return stripes;
+	}
+
+	/**
+	 * returns number of records after which a batch is handed over
+	 * @return
+	 */
+	public int getMaxRecords() {
+		return maxRecords;
+	}
+
+	/**
+	 * returns number of bytes after which a batch is handed over
+	 * @return
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * returns age after which a batch is handed over, also by the background sweep
+	 * @return
+	 */
+	public int getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchingConfig [stripes=" + stripes + ", maxRecords=" + maxRecords + ", maxBytes=" + maxBytes
+				+ ", maxAgeMillis=" + maxAgeMillis + "]";
+	}
+
+	/**
+	 * Creates batching config
+	 * @param stripes 0 for twice the number of processors, rounded up to a power of two
+	 * @param maxRecords
+	 * @param maxBytes
+	 * @param maxAgeMillis
+	 * @return
+	 */
+	@PluginFactory
+	public static BatchingConfig createBatchingConfig(
+			@PluginAttribute(value = "stripes") final int stripes,
+			@PluginAttribute(value = "maxRecords", defaultInt = DEFAULT_MAX_RECORDS) final int maxRecords,
+			@PluginAttribute(value = "maxBytes", defaultInt = DEFAULT_MAX_BYTES) final int maxBytes,
+			@PluginAttribute(value = "maxAgeMillis", defaultInt = DEFAULT_MAX_AGE_MILLIS) final int maxAgeMillis) {
+		BatchingConfig config = new BatchingConfig();
+		int requested = Math.min(stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors() * 2,
+				MAX_STRIPES);
+		if (stripes < 0 || stripes > MAX_STRIPES) {
+			LOGGER.error("stripes must be >= 0 and <= {}, using {}", MAX_STRIPES, requested);
+		}
+		config.stripes = Integer.highestOneBit(requested) == requested ? requested
+				: Integer.highestOneBit(requested) << 1;
+		if (maxRecords > 0) {
+			config.maxRecords = maxRecords;
+		} else {
+			LOGGER.error("maxRecords must be > 0, using {}", config.maxRecords);
+		}
+		if (maxBytes > 0) {
+			config.maxBytes = maxBytes;
+		} else {
+			LOGGER.error("maxBytes must be > 0, using {}", config.maxBytes);
+		}
+		if (maxAgeMillis > 0) {
+			config.maxAgeMillis = maxAgeMillis;
+		} else {
+			LOGGER.error("maxAgeMillis must be > 0, using {}", config.maxAgeMillis);
+		}
+		return config;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Locale;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Assert;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Parsing of plugin attribute values shared by the config plugins, invalid
+ * values are reported through the {@link StatusLogger} and replaced by the
+ * default
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ConfigValues {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private ConfigValues() {
+	}
+
+	/**
+	 * parses an enum constant ignoring case
+	 * @param type
+	 * @param name attribute name used in the error message
+	 * @param value
+	 * @param defaultValue returned when value is empty or unknown
+	 * @return
+	 */
+	static <E extends Enum<E>> E parseEnum(final Class<E> type, final String name, final String value,
+			final E defaultValue) {
+		if (Assert.isEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			LOGGER.error("Unknown {} {}, using {}", name, value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * parses a level
+	 * @param name attribute name used in the error message
+	 * @param value
+	 * @param defaultValue returned when value is empty or unknown
+	 * @return
+	 */
+	static Level parseLevel(final String name, final String value, final Level defaultValue) {
+		if (Assert.isEmpty(value)) {
+			return defaultValue;
+		}
+		Level level = Level.toLevel(value.trim(), null);
+		if (level == null) {
+			LOGGER.error("Unknown {} {}, using {}", name, value, defaultValue);
+			return defaultValue;
+		}
+		return level;
+	}
+
+	/**
+	 * splits a comma separated list
+	 * @param value
+	 * @return empty array when value is empty
+	 */
+	static String[] splitList(final String value) {
+		return Assert.isNonEmpty(value) ? value.trim().split("\\s*,\\s*") : new String[0];
+	}
+}
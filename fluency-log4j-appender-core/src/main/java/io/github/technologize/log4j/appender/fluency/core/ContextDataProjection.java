@@ -0,0 +1,159 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.TriConsumer;
+
+/**
+ * Copies the event's context data (MDC / ThreadContext) into the record,
+ * either as top level entries or nested under one key, iterating the
+ * {@link ReadOnlyStringMap} without copying it. Top level entries never
+ * replace keys of the record (level, message, fields...), context data with
+ * such keys is left out.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ContextDataProjection {
+
+	private static final TriConsumer<String, Object, Sink> PACKER = new TriConsumer<String, Object, Sink>() {
+		@Override
+		public void accept(final String key, final Object value, final Sink sink) {
+			if (sink.owner.accepts(key)) {
+				sink.buffer.packString(key);
+				sink.buffer.packValue(value);
+				sink.count++;
+			}
+		}
+	};
+
+	/* puts accepted entries into the record map, bound to its projection so that no holder is allocated */
+	private final TriConsumer<String, Object, Map<String, Object>> collector = new TriConsumer<String, Object, Map<String, Object>>() {
+		@Override
+		public void accept(final String key, final Object value, final Map<String, Object> data) {
+			if (accepts(key)) {
+				data.put(key, value);
+			}
+		}
+	};
+
+	private final String nestedKey;
+	private final byte[] packedNestedKey;
+	private final Set<String> includes;
+	private final Set<String> excludes;
+	private final Set<String> recordKeys;
+
+	/**
+	 * @param nestedKey key to nest context data under, null to write entries at top level
+	 * @param includes keys to write, all when empty
+	 * @param excludes keys never written
+	 * @param fieldNames names of the fields of the record, like its other keys not written at top level
+	 */
+	ContextDataProjection(final String nestedKey, final String[] includes, final String[] excludes,
+			final Collection<String> fieldNames) {
+		this.nestedKey = nestedKey;
+		this.packedNestedKey = nestedKey != null ? KeyTable.pack(nestedKey) : null;
+		this.includes = toSet(includes);
+		this.excludes = toSet(excludes);
+		this.recordKeys = new HashSet<>();
+		if (nestedKey == null) {
+			this.recordKeys.addAll(KeyTable.RECORD_KEYS);
+			this.recordKeys.addAll(fieldNames);
+		}
+	}
+
+	/**
+	 * returns whether context data is nested under one key
+	 * @return
+	 */
+	boolean isNested() {
+		return nestedKey != null;
+	}
+
+	/**
+	 * Writes context data, when nested writes exactly one entry
+	 * @param contextData
+	 * @param buffer
+	 * @param sink per thread state
+	 * @return number of top level entries written
+	 */
+	int write(final ReadOnlyStringMap contextData, final MessagePackBuffer buffer, final Sink sink) {
+		int mark = 0;
+		if (nestedKey != null) {
+			buffer.writePayload(packedNestedKey);
+			mark = buffer.beginMap();
+		}
+		sink.owner = this;
+		sink.buffer = buffer;
+		sink.count = 0;
+		if (contextData != null && !contextData.isEmpty()) {
+			contextData.forEach(PACKER, sink);
+		}
+		int written = sink.count;
+		/* nothing from the event stays referenced */
+		sink.buffer = null;
+		if (nestedKey != null) {
+			buffer.endMap(mark, written);
+			return 1;
+		}
+		return written;
+	}
+
+	/**
+	 * Puts context data into the record map
+	 * @param contextData
+	 * @param logEventData
+	 */
+	void put(final ReadOnlyStringMap contextData, final Map<String, Object> logEventData) {
+		Map<String, Object> target = logEventData;
+		if (nestedKey != null) {
+			target = new HashMap<>();
+			logEventData.put(nestedKey, target);
+		}
+		if (contextData != null && !contextData.isEmpty()) {
+			contextData.forEach(collector, target);
+		}
+	}
+
+	private boolean accepts(final String key) {
+		return (includes.isEmpty() || includes.contains(key)) && !excludes.contains(key) && !recordKeys.contains(key);
+	}
+
+	private static Set<String> toSet(final String[] keys) {
+		if (keys == null || keys.length == 0) {
+			return Collections.emptySet();
+		}
+		return new HashSet<>(Arrays.asList(keys));
+	}
+
+	/**
+	 * Per thread state handed to the {@link TriConsumer}
+	 */
+	static final class Sink {
+		private ContextDataProjection owner;
+		private MessagePackBuffer buffer;
+		private int count;
+	}
+}
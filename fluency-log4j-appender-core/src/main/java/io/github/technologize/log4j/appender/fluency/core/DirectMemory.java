@@ -0,0 +1,106 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Limits and usage of the JVM's direct memory, where fluency allocates its
+ * buffer chunks when jvmHeapBufferMode is off
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class DirectMemory {
+
+	private static final String MAX_DIRECT_MEMORY_OPTION = "-XX:MaxDirectMemorySize=";
+
+	private static final BufferPoolMXBean DIRECT_POOL = directPool();
+	private static final long MAX = maxDirectMemory();
+
+	private DirectMemory() {
+	}
+
+	/**
+	 * returns max bytes of direct memory the JVM hands out
+	 * @return
+	 */
+	static long max() {
+		return MAX;
+	}
+
+	/**
+	 * returns bytes of direct memory in use by the whole JVM, -1 when unknown
+	 * @return
+	 */
+	static long used() {
+		return DIRECT_POOL != null ? DIRECT_POOL.getMemoryUsed() : -1;
+	}
+
+	private static BufferPoolMXBean directPool() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool;
+			}
+		}
+		return null;
+	}
+
+	/* the JVM defaults to the max heap size when the option is not set */
+	private static long maxDirectMemory() {
+		long max = Runtime.getRuntime().maxMemory();
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (argument.startsWith(MAX_DIRECT_MEMORY_OPTION)) {
+				long parsed = parseSize(argument.substring(MAX_DIRECT_MEMORY_OPTION.length()));
+				if (parsed > 0) {
+					max = parsed;
+				}
+			}
+		}
+		return max;
+	}
+
+	private static long parseSize(final String value) {
+		String size = value.trim().toLowerCase(Locale.ROOT);
+		if (size.isEmpty()) {
+			return -1;
+		}
+		long unit = 1;
+		switch (size.charAt(size.length() - 1)) {
+		case 'k':
+			unit = 1L << 10;
+			break;
+		case 'm':
+			unit = 1L << 20;
+			break;
+		case 'g':
+			unit = 1L << 30;
+			break;
+		case 't':
+			unit = 1L << 40;
+			break;
+		default:
+			break;
+		}
+		try {
+			return Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
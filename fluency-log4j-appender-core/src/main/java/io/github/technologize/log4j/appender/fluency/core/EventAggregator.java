@@ -0,0 +1,220 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.Message;
+
+/**
+ * Lets the first of repeated events through and counts the repeats.
+ *
+ * Events are keyed by a fingerprint of logger, level, message format and
+ * throwable type. Keys live in a fixed open addressed table, an event whose
+ * key finds no free slot within a few probes is simply let through, so
+ * memory stays bounded whatever the number of distinct events. When the
+ * window ends every key with repeats is reported as one rollup record with
+ * count, first and last timestamp and the parameters of the first repeat.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class EventAggregator {
+
+	private static final int MAX_PROBES = 8;
+
+	private final AtomicLongArray fingerprints;
+	private final AtomicReferenceArray<Aggregate> aggregates;
+	private final int windowMillis;
+	private final int sampleParameters;
+	private final ReportSink reports;
+	private ScheduledFuture<?> flush;
+
+	/**
+	 * @param config
+	 * @param reports receives rollup records
+	 */
+	EventAggregator(final AggregationConfig config, final ReportSink reports) {
+		this.fingerprints = new AtomicLongArray(config.getMaxKeys());
+		this.aggregates = new AtomicReferenceArray<>(config.getMaxKeys());
+		this.windowMillis = config.getWindowMillis();
+		this.sampleParameters = config.getSampleParameters();
+		this.reports = reports;
+	}
+
+	/**
+	 * Starts closing windows
+	 */
+	synchronized void start() {
+		if (flush == null) {
+			flush = Housekeeper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, windowMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops closing windows and reports repeats of the open window
+	 */
+	synchronized void stop() {
+		if (flush != null) {
+			flush.cancel(false);
+			flush = null;
+		}
+		flush();
+	}
+
+	/**
+	 * returns whether the event is sent, repeats within the window are only counted
+	 * @param logEvent
+	 * @return
+	 */
+	boolean forward(final LogEvent logEvent) {
+		String loggerName = logEvent.getLoggerName();
+		Level level = logEvent.getLevel();
+		String format = EventFingerprint.messageFormat(logEvent.getMessage());
+		Throwable thrown = logEvent.getThrown();
+		String thrownType = thrown != null ? thrown.getClass().getName() : null;
+		long fingerprint = EventFingerprint.with(EventFingerprint.of(loggerName, level, format),
+				thrownType != null ? thrownType.hashCode() : 0);
+
+		int mask = fingerprints.length() - 1;
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			int slot = ((int) fingerprint + probe) & mask;
+			long owner = fingerprints.get(slot);
+			if (owner == 0 && fingerprints.compareAndSet(slot, 0, fingerprint)) {
+				aggregates.set(slot, new Aggregate(loggerName, level, format, thrownType, logEvent.getTimeMillis()));
+				return true;
+			}
+			if (owner == 0) {
+				owner = fingerprints.get(slot);
+			}
+			if (owner == fingerprint) {
+				/* the slot may be claimed but not filled yet, or being flushed */
+				Aggregate aggregate = aggregates.get(slot);
+				return aggregate == null || !aggregate.repeat(logEvent, sampleParameters);
+			}
+		}
+		/* no room for another key in this window */
+		return true;
+	}
+
+	/* reports and clears all keys, repeats racing with it are let through */
+	private void flush() {
+		for (int slot = 0; slot < fingerprints.length(); slot++) {
+			Aggregate aggregate = aggregates.getAndSet(slot, null);
+			fingerprints.set(slot, 0);
+			if (aggregate == null) {
+				continue;
+			}
+			long repeated = aggregate.close();
+			if (repeated == 0) {
+				continue;
+			}
+			Map<String, Object> details = new LinkedHashMap<>();
+			details.put("repeated", repeated);
+			details.put("repeatedLogger", aggregate.loggerName);
+			details.put("repeatedLevel", aggregate.level.name());
+			details.put("messageFormat", aggregate.format);
+			if (aggregate.thrownType != null) {
+				details.put("thrown", aggregate.thrownType);
+			}
+			details.put("firstTimestamp", Instant.ofEpochMilli(aggregate.firstMillis).toString());
+			details.put("lastTimestamp", Instant.ofEpochMilli(aggregate.lastMillis).toString());
+			String[] sample = aggregate.sample;
+			if (sample != null) {
+				details.put("sampleParameters", Arrays.asList(sample));
+			}
+			details.put("windowMillis", windowMillis);
+			reports.report(aggregate.level, repeated + " repeated events aggregated", details);
+		}
+	}
+
+	/**
+	 * Repeats of one key in the current window
+	 */
+	private static final class Aggregate {
+		private final String loggerName;
+		private final Level level;
+		private final String format;
+		private final String thrownType;
+		private final long firstMillis;
+		/* -1 once flushed */
+		private final AtomicLong repeated = new AtomicLong();
+		private volatile long lastMillis;
+		private volatile String[] sample;
+
+		private Aggregate(final String loggerName, final Level level, final String format, final String thrownType,
+				final long firstMillis) {
+			this.loggerName = loggerName;
+			this.level = level;
+			this.format = format;
+			this.thrownType = thrownType;
+			this.firstMillis = firstMillis;
+			this.lastMillis = firstMillis;
+		}
+
+		/* returns false when the aggregate was flushed meanwhile */
+		private boolean repeat(final LogEvent logEvent, final int sampleParameters) {
+			long count;
+			do {
+				count = repeated.get();
+				if (count < 0) {
+					return false;
+				}
+			} while (!repeated.compareAndSet(count, count + 1));
+			lastMillis = logEvent.getTimeMillis();
+			if (count == 0 && sampleParameters > 0) {
+				/* parameters of reusable messages change with the next event, they are copied as text */
+				sample = sample(logEvent.getMessage(), sampleParameters);
+			}
+			return true;
+		}
+
+		private long close() {
+			return repeated.getAndSet(-1);
+		}
+
+		private static String[] sample(final Message message, final int max) {
+			Object[] parameters = message != null ? message.getParameters() : null;
+			if (parameters == null || parameters.length == 0) {
+				return null;
+			}
+			String[] sample = new String[Math.min(parameters.length, max)];
+			for (int i = 0; i < sample.length; i++) {
+				try {
+					sample[i] = String.valueOf(parameters[i]);
+				} catch (RuntimeException e) {
+					sample[i] = "[" + parameters[i].getClass().getName() + " toString() threw " + e + "]";
+				}
+			}
+			return sample;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableSimpleMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+/**
+ * Cheap 64 bit fingerprints of events, built from values log4j already
+ * holds so that computing one does not allocate
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class EventFingerprint {
+
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+
+	private EventFingerprint() {
+	}
+
+	/**
+	 * returns the message template (format before parameters are applied),
+	 * or the message class name for messages whose format is not at hand
+	 * without rendering
+	 * @param message
+	 * @return
+	 */
+	static String messageFormat(final Message message) {
+		if (message == null) {
+			return "";
+		}
+		if (message instanceof ParameterizedMessage || message instanceof ReusableParameterizedMessage
+				|| message instanceof SimpleMessage || message instanceof ReusableSimpleMessage) {
+			String format = message.getFormat();
+			return format != null ? format : "";
+		}
+		return message.getClass().getName();
+	}
+
+	/**
+	 * returns fingerprint of logger, level and message template, never 0
+	 * @param loggerName
+	 * @param level
+	 * @param messageFormat
+	 * @return
+	 */
+	static long of(final String loggerName, final Level level, final String messageFormat) {
+		long hash = SEED;
+		hash = mix(hash ^ (loggerName != null ? loggerName.hashCode() : 0));
+		hash = mix(hash ^ level.intLevel());
+		hash = mix(hash ^ messageFormat.hashCode());
+		return hash != 0 ? hash : SEED;
+	}
+
+	/**
+	 * adds one more value to a fingerprint, never returns 0
+	 * @param fingerprint
+	 * @param value
+	 * @return
+	 */
+	static long with(final long fingerprint, final int value) {
+		long hash = mix(fingerprint ^ value);
+		return hash != 0 ? hash : SEED;
+	}
+
+	/* murmur3 64 bit finalizer */
+	private static long mix(final long value) {
+		long hash = value;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
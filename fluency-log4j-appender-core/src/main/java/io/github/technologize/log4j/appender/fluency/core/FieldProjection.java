@@ -0,0 +1,368 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.TriConsumer;
+
+/**
+ * Writes the value of one {@link Field}.
+ *
+ * Field patterns are compiled once: literals and patterns made of a single
+ * simple converter ({@code %X{key}}, {@code %X}, {@code %marker},
+ * {@code %markerSimpleName}, {@code %T}, {@code %t}, {@code %p}, {@code %c})
+ * read the value straight from the {@link LogEvent}, anything else is
+ * rendered by its {@link PatternLayout}. Output is the same as the
+ * {@link PatternLayout} would produce: literals with backslash escapes go to
+ * the layout, and as field layouts write exceptions (log4j's default
+ * alwaysWriteExceptions) events carrying a throwable are always rendered by
+ * the layout.
+ *
+ * The same projections give the field value as text for records built as
+ * maps.
+ *
+ * @author Bharat Gadde
+ *
+ */
+abstract class FieldProjection {
+
+	private static final Pattern MDC_KEY = Pattern.compile("%(?:X|mdc|MDC)\\{([^{},]+)\\}");
+	private static final Pattern MDC_ALL = Pattern.compile("%(?:X|mdc|MDC)");
+	private static final Pattern MARKER = Pattern.compile("%marker");
+	private static final Pattern MARKER_SIMPLE_NAME = Pattern.compile("%markerSimpleName");
+	private static final Pattern THREAD_ID = Pattern.compile("%(?:T|tid|threadId)");
+	private static final Pattern THREAD_NAME = Pattern.compile("%(?:t|thread|threadName)");
+	private static final Pattern LEVEL = Pattern.compile("%(?:p|level)");
+	private static final Pattern LOGGER = Pattern.compile("%(?:c|logger)");
+
+	/**
+	 * writes the field value as a MessagePack string
+	 * @param logEvent
+	 * @param buffer
+	 * @param text scratch builder, content is undefined on entry
+	 */
+	abstract void write(LogEvent logEvent, MessagePackBuffer buffer, StringBuilder text);
+
+	/**
+	 * returns the field value
+	 * @param logEvent
+	 * @return
+	 */
+	abstract String toValue(LogEvent logEvent);
+
+	/**
+	 * Compiles the pattern into the cheapest projection producing the same value
+	 * @param pattern
+	 * @param layout layout of the pattern, used when no direct accessor applies and for events carrying a throwable
+	 * @return
+	 */
+	static FieldProjection compile(final String pattern, final PatternLayout layout) {
+		LayoutValue layoutValue = new LayoutValue(layout);
+		FieldProjection direct = direct(pattern);
+		return direct != null ? new UnlessThrown(direct, layoutValue) : layoutValue;
+	}
+
+	/* projection reading the value from the event, null when the pattern needs the layout */
+	private static FieldProjection direct(final String pattern) {
+		if (pattern.indexOf('%') < 0 && pattern.indexOf('$') < 0 && pattern.indexOf('\\') < 0) {
+			return new Literal(pattern);
+		}
+		Matcher mdcKey = MDC_KEY.matcher(pattern);
+		if (mdcKey.matches()) {
+			return new ContextValue(mdcKey.group(1).trim());
+		}
+		if (MDC_ALL.matcher(pattern).matches()) {
+			return new ContextMap();
+		}
+		if (MARKER.matcher(pattern).matches()) {
+			return new MarkerValue(false);
+		}
+		if (MARKER_SIMPLE_NAME.matcher(pattern).matches()) {
+			return new MarkerValue(true);
+		}
+		if (THREAD_ID.matcher(pattern).matches()) {
+			return new ThreadId();
+		}
+		if (THREAD_NAME.matcher(pattern).matches()) {
+			return new ThreadName();
+		}
+		if (LEVEL.matcher(pattern).matches()) {
+			return new LevelName();
+		}
+		if (LOGGER.matcher(pattern).matches()) {
+			return new LoggerName();
+		}
+		return null;
+	}
+
+	/**
+	 * A direct projection, events carrying a throwable go to the layout which
+	 * appends the stack trace
+	 */
+	private static final class UnlessThrown extends FieldProjection {
+		private final FieldProjection direct;
+		private final LayoutValue layout;
+
+		private UnlessThrown(final FieldProjection direct, final LayoutValue layout) {
+			this.direct = direct;
+			this.layout = layout;
+		}
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			if (logEvent.getThrown() != null) {
+				layout.write(logEvent, buffer, text);
+			} else {
+				direct.write(logEvent, buffer, text);
+			}
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return logEvent.getThrown() != null ? layout.toValue(logEvent) : direct.toValue(logEvent);
+		}
+	}
+
+	/**
+	 * Constant text, packed once
+	 */
+	private static final class Literal extends FieldProjection {
+		private final String value;
+		private final byte[] packed;
+
+		private Literal(final String value) {
+			this.value = value;
+			this.packed = KeyTable.pack(value);
+		}
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			buffer.writePayload(packed);
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return value;
+		}
+	}
+
+	/**
+	 * {@code %X{key}}
+	 */
+	private static final class ContextValue extends FieldProjection {
+		private final String key;
+
+		private ContextValue(final String key) {
+			this.key = key;
+		}
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			ReadOnlyStringMap contextData = logEvent.getContextData();
+			Object value = contextData != null ? contextData.getValue(key) : null;
+			if (value == null) {
+				buffer.packStringHeader(0);
+			} else if (value instanceof CharSequence) {
+				buffer.packString((CharSequence) value);
+			} else {
+				text.setLength(0);
+				text.append(value);
+				buffer.packString(text);
+			}
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			ReadOnlyStringMap contextData = logEvent.getContextData();
+			Object value = contextData != null ? contextData.getValue(key) : null;
+			return value != null ? String.valueOf(value) : "";
+		}
+	}
+
+	/**
+	 * {@code %X}, written as {@code {key1=value1, key2=value2}}
+	 */
+	private static final class ContextMap extends FieldProjection {
+		private static final TriConsumer<String, Object, StringBuilder> APPENDER = new TriConsumer<String, Object, StringBuilder>() {
+			@Override
+			public void accept(final String key, final Object value, final StringBuilder text) {
+				if (text.length() > 1) {
+					text.append(", ");
+				}
+				text.append(key).append('=').append(value);
+			}
+		};
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			text.setLength(0);
+			format(logEvent, text);
+			buffer.packString(text);
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			StringBuilder text = new StringBuilder();
+			format(logEvent, text);
+			return text.toString();
+		}
+
+		private static void format(final LogEvent logEvent, final StringBuilder text) {
+			ReadOnlyStringMap contextData = logEvent.getContextData();
+			text.append('{');
+			if (contextData != null) {
+				contextData.forEach(APPENDER, text);
+			}
+			text.append('}');
+		}
+	}
+
+	/**
+	 * {@code %marker} and {@code %markerSimpleName}
+	 */
+	private static final class MarkerValue extends FieldProjection {
+		private final boolean simpleName;
+
+		private MarkerValue(final boolean simpleName) {
+			this.simpleName = simpleName;
+		}
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			Marker marker = logEvent.getMarker();
+			if (marker == null) {
+				buffer.packStringHeader(0);
+			} else if (simpleName) {
+				buffer.packString(marker.getName());
+			} else if (marker instanceof StringBuilderFormattable) {
+				text.setLength(0);
+				((StringBuilderFormattable) marker).formatTo(text);
+				buffer.packString(text);
+			} else {
+				buffer.packString(marker.toString());
+			}
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			Marker marker = logEvent.getMarker();
+			if (marker == null) {
+				return "";
+			}
+			if (simpleName) {
+				return marker.getName();
+			}
+			if (marker instanceof StringBuilderFormattable) {
+				StringBuilder text = new StringBuilder();
+				((StringBuilderFormattable) marker).formatTo(text);
+				return text.toString();
+			}
+			return marker.toString();
+		}
+	}
+
+	/**
+	 * {@code %T}
+	 */
+	private static final class ThreadId extends FieldProjection {
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			text.setLength(0);
+			text.append(logEvent.getThreadId());
+			buffer.packString(text);
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return Long.toString(logEvent.getThreadId());
+		}
+	}
+
+	/**
+	 * {@code %t}
+	 */
+	private static final class ThreadName extends FieldProjection {
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			buffer.packString(logEvent.getThreadName());
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return logEvent.getThreadName();
+		}
+	}
+
+	/**
+	 * {@code %p}
+	 */
+	private static final class LevelName extends FieldProjection {
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			buffer.packString(logEvent.getLevel().name());
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return logEvent.getLevel().name();
+		}
+	}
+
+	/**
+	 * {@code %c}
+	 */
+	private static final class LoggerName extends FieldProjection {
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			buffer.packString(logEvent.getLoggerName());
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return logEvent.getLoggerName();
+		}
+	}
+
+	/**
+	 * Any other pattern, encoded by its layout straight into the buffer
+	 */
+	private static final class LayoutValue extends FieldProjection {
+		private final PatternLayout layout;
+
+		private LayoutValue(final PatternLayout layout) {
+			this.layout = layout;
+		}
+
+		@Override
+		void write(final LogEvent logEvent, final MessagePackBuffer buffer, final StringBuilder text) {
+			int mark = buffer.beginString();
+			layout.encode(logEvent, buffer);
+			buffer.endString(mark);
+		}
+
+		@Override
+		String toValue(final LogEvent logEvent) {
+			return layout.toSerializable(logEvent);
+		}
+	}
+}
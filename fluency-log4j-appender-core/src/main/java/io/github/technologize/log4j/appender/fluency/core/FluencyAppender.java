@@ -17,22 +17,26 @@ package io.github.technologize.log4j.appender.fluency.core;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.time.Instant;
-import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
 import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.impl.LocationAware;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
 import org.apache.logging.log4j.core.layout.PatternLayout;
-import org.apache.logging.log4j.core.pattern.NameAbbreviator;
 import org.apache.logging.log4j.core.util.Assert;
 import org.apache.logging.log4j.core.util.Booleans;
+import org.apache.logging.log4j.message.SimpleMessage;
 import org.apache.logging.log4j.status.StatusLogger;
+import org.komamitsu.fluency.BufferFullException;
 import org.komamitsu.fluency.EventTime;
 import org.komamitsu.fluency.Fluency;
 
@@ -40,16 +44,33 @@ import org.komamitsu.fluency.Fluency;
  * @author Bharat Gadde
  *
  */
-public class FluencyAppender extends AbstractAppender {
+public class FluencyAppender extends AbstractAppender implements LocationAware {
 
 	private static final StatusLogger LOGGER = StatusLogger.getLogger();
 	private static final String UNKNOWN = "<unknown>";
+	private static final String LAYOUT_PROBE = "fluency-appender-layout-probe";
 	
-	private static final NameAbbreviator abbreviator = NameAbbreviator.getAbbreviator("1.");
-
+	private final FluencyManager manager;
 	private final Fluency fluency;
 	private final String tag;
 	private final Map<String, PatternLayout> fieldsParams;
+	/* field values of records built as maps */
+	private final Map<String, FieldProjection> fieldValues;
+	private final LoggerNameCache loggerNames;
+	private final TimestampFormatter timestampFormatter;
+	private final LocationPolicy locationPolicy;
+	private final ContextDataProjection contextData;
+	private final RecordEncoder recordEncoder;
+	private final boolean structuredMessages;
+	private final ThrowableProjection throwables;
+	private final RecordSink fluencySink;
+	private final AsyncEmitter asyncEmitter;
+	private final StripedBatcher batcher;
+	private final ReportSink reportSink;
+	private final AdmissionController admission;
+	private final RateLimiter rateLimiter;
+	private final EventAggregator aggregator;
+	private final AppenderMetrics metrics;
 	
 
 	/**
@@ -64,26 +85,272 @@ public class FluencyAppender extends AbstractAppender {
 	protected FluencyAppender(final String name, final String tag, final Field[] fields,
 			final FluencyConfig fluencyConfig, final Filter filter, final Layout<? extends Serializable> layout,
 			final String ignoreExceptions) {
+		this(name, tag, fields, fluencyConfig, AppenderOptions.none(), filter, layout, ignoreExceptions);
+	}
+
+	/**
+	 * @param name
+	 * @param tag
+	 * @param fields
+	 * @param fluencyConfig
+	 * @param options optional elements, null for none
+	 * @param filter
+	 * @param layout
+	 * @param ignoreExceptions
+	 */
+	protected FluencyAppender(final String name, final String tag, final Field[] fields,
+			final FluencyConfig fluencyConfig, final AppenderOptions options, final Filter filter,
+			final Layout<? extends Serializable> layout, final String ignoreExceptions) {
 		
-		super(name, filter, Assert.isNonEmpty(layout) ? layout : PatternLayout.createDefaultLayout(),
+		super(name, filter, Assert.isNonEmpty(layout) ? layout : defaultLayout(options),
 				Booleans.parseBoolean(ignoreExceptions, true), Property.EMPTY_ARRAY);
 		
+		AppenderOptions elements = options != null ? options : AppenderOptions.none();
+		RecordConfig recordConfig = elements.getRecordConfig();
+		AsyncQueueConfig asyncQueueConfig = elements.getAsyncQueueConfig();
+		BatchingConfig batchingConfig = elements.getBatchingConfig();
+		BackpressureConfig backpressureConfig = elements.getBackpressureConfig();
+		RateLimitConfig[] rateLimits = elements.getRateLimits();
+		AggregationConfig aggregationConfig = elements.getAggregationConfig();
+		MetricsConfig metricsConfig = elements.getMetricsConfig();
+
 		/* Tag cannot be Empty */
 		Assert.requireNonEmpty(tag, "tag is required");
 		
 		this.tag = tag;
 		this.fieldsParams = new HashMap<>();
+		this.fieldValues = new HashMap<>();
 
 		for (Field field : fields) {
 			/* No Need to write values if key or value is blank */
 			if (Assert.isNonEmpty(field.getPattern()) && Assert.isNonEmpty(field.getName())) {				
 				PatternLayout valueLayout = PatternLayout.newBuilder().withPattern(field.getPattern()).build();
 				this.fieldsParams.put(field.getName(), valueLayout);
+				this.fieldValues.put(field.getName(), FieldProjection.compile(field.getPattern(), valueLayout));
 			}
 		}
 		Assert.requireNonEmpty(fluencyConfig, "Config is required");
 
-		this.fluency = fluencyConfig.makeFluency();
+		RecordConfig record = Assert.isNonEmpty(recordConfig) ? recordConfig : RecordConfig.createDefault();
+		this.loggerNames = new LoggerNameCache(record.getLoggerNameCacheSize());
+		this.timestampFormatter = record.getTimestampFormat() == RecordConfig.TimestampFormat.ISO_8601
+				? new TimestampFormatter()
+				: null;
+		this.locationPolicy = new LocationPolicy(record.getLocationLevel(), record.getLocationMarkers());
+		String contextDataKey = record.getContextDataKey();
+		if (contextDataKey != null && this.fieldsParams.containsKey(contextDataKey)) {
+			LOGGER.error("contextDataKey {} of appender {} is the name of a field, writing context data at"
+					+ " top level", contextDataKey, name);
+			contextDataKey = null;
+		}
+		this.contextData = record.isIncludeContextData()
+				? new ContextDataProjection(contextDataKey, record.getContextDataIncludes(),
+						record.getContextDataExcludes(), this.fieldsParams.keySet())
+				: null;
+		this.structuredMessages = record.isStructuredMessages();
+		this.throwables = record.isStructuredExceptions()
+				? new ThrowableProjection(record.getExceptionCacheSize(), record.getExceptionRefreshMillis())
+				: null;
+		if (this.throwables != null && Assert.isNonEmpty(layout) && writesExceptions(getLayout())) {
+			LOGGER.warn("Layout of appender {} renders exceptions into message next to the exception field,"
+					+ " set alwaysWriteExceptions=\"false\" on it", name);
+		}
+		/* The async stage and batches only carry encoded records, nothing of the event may be kept */
+		boolean staged = Assert.isNonEmpty(asyncQueueConfig) || Assert.isNonEmpty(batchingConfig);
+		if (staged && record.getEncoding() == RecordConfig.Encoding.MAP) {
+			LOGGER.warn("Appender {} uses an async queue or batching, records are MessagePack encoded", name);
+		}
+		this.recordEncoder = record.getEncoding() == RecordConfig.Encoding.MESSAGE_PACK || staged
+				? new RecordEncoder(getLayout(), this.fieldsParams, this.loggerNames, this.timestampFormatter,
+						this.locationPolicy, this.contextData, this.structuredMessages, this.throwables)
+				: null;
+
+		/* Appenders with the same settings share one fluency */
+		this.manager = FluencyManager.getFluencyManager(fluencyConfig);
+		this.fluency = this.manager.getFluency();
+		this.reportSink = new ReportSink() {
+			@Override
+			public void report(final Level level, final String message, final Map<String, Object> details) {
+				emitReport(FluencyAppender.this.tag, level, message, details);
+			}
+		};
+		this.admission = Assert.isNonEmpty(backpressureConfig)
+				? new AdmissionController(backpressureConfig, this.fluency, this.manager.getMaxBufferSize(),
+						this.reportSink)
+				: null;
+		this.rateLimiter = Assert.isNonEmpty(rateLimits) ? new RateLimiter(rateLimits, this.reportSink) : null;
+		this.aggregator = Assert.isNonEmpty(aggregationConfig)
+				? new EventAggregator(aggregationConfig, this.reportSink)
+				: null;
+		this.fluencySink = new RecordSink() {
+			@Override
+			public void emit(final long epochSecond, final int nanoOfSecond, final Level level, final byte[] record,
+					final int offset, final int length) throws IOException {
+				AppenderMetrics metrics = FluencyAppender.this.metrics;
+				if (metrics == null) {
+					emitRecord(epochSecond, nanoOfSecond, level, record, offset, length);
+					return;
+				}
+				long start = System.nanoTime();
+				try {
+					emitRecord(epochSecond, nanoOfSecond, level, record, offset, length);
+				} catch (IOException | RuntimeException e) {
+					metrics.recordEmitError();
+					throw e;
+				}
+				metrics.recordEmit(length, System.nanoTime() - start);
+			}
+		};
+		this.asyncEmitter = Assert.isNonEmpty(asyncQueueConfig)
+				? new AsyncEmitter(name, asyncQueueConfig, this.fluencySink)
+				: null;
+		/* Metrics records go to their own tag */
+		ReportSink metricsSink = null;
+		if (Assert.isNonEmpty(metricsConfig) && metricsConfig.getReportTag() != null) {
+			final String metricsTag = metricsConfig.getReportTag();
+			metricsSink = new ReportSink() {
+				@Override
+				public void report(final Level level, final String message, final Map<String, Object> details) {
+					emitReport(metricsTag, level, message, details);
+				}
+			};
+		}
+		this.metrics = Assert.isNonEmpty(metricsConfig)
+				? new AppenderMetrics(metricsConfig, getClass().getSimpleName(), name, this.fluency,
+						this.manager.getMaxBufferSize(), this.manager.isJvmHeapBufferMode(),
+						this.recordEncoder != null, this.asyncEmitter, metricsSink)
+				: null;
+		/* Without the async stage a batch would be emitted record by record under fluency's lock */
+		if (Assert.isNonEmpty(batchingConfig) && this.asyncEmitter == null) {
+			LOGGER.warn("Batching of appender {} needs an AsyncQueue and is disabled", name);
+		}
+		this.batcher = Assert.isNonEmpty(batchingConfig) && this.asyncEmitter != null
+				? new StripedBatcher(batchingConfig, this.asyncEmitter, this.metrics)
+				: null;
+	}
+
+	/* The default layout leaves the stack trace out when it is sent as exception field */
+	private static Layout<? extends Serializable> defaultLayout(final AppenderOptions options) {
+		RecordConfig recordConfig = options != null ? options.getRecordConfig() : null;
+		if (Assert.isNonEmpty(recordConfig) && recordConfig.isStructuredExceptions()) {
+			return PatternLayout.newBuilder().withPattern(PatternLayout.DEFAULT_CONVERSION_PATTERN)
+					.withAlwaysWriteExceptions(false).build();
+		}
+		return PatternLayout.createDefaultLayout();
+	}
+
+	/* Formats an event with a probe exception, the layout writes exceptions when the probe shows up */
+	private static boolean writesExceptions(final Layout<? extends Serializable> layout) {
+		LogEvent probe = Log4jLogEvent.newBuilder().setLoggerName(FluencyAppender.class.getName())
+				.setLevel(Level.ERROR).setMessage(new SimpleMessage(""))
+				.setThrown(new IllegalStateException(LAYOUT_PROBE)).build();
+		try {
+			Serializable formatted = layout.toSerializable(probe);
+			return formatted instanceof String && ((String) formatted).contains(LAYOUT_PROBE);
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * starts the appender and its async stage
+	 */
+	@Override
+	public void start() {
+		super.start();
+		if (this.admission != null) {
+			this.admission.start();
+		}
+		if (this.rateLimiter != null) {
+			this.rateLimiter.start();
+		}
+		if (this.aggregator != null) {
+			this.aggregator.start();
+		}
+		if (this.asyncEmitter != null) {
+			this.asyncEmitter.start();
+		}
+		if (this.batcher != null) {
+			this.batcher.start();
+		}
+		if (this.metrics != null) {
+			this.metrics.start();
+		}
+	}
+
+	/**
+	 * stops the appender, open batches are handed over, records still queued
+	 * in the async stage are emitted and the shared fluency is released. The
+	 * last appender using it flushes and closes it, all within the timeout
+	 * (0 for no timeout) and fluency's own waitUntilBufferFlushed /
+	 * waitUntilFlusherTerminated
+	 */
+	@Override
+	public boolean stop(final long timeout, final TimeUnit timeUnit) {
+		final long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+		setStopping();
+		boolean stopped = super.stop(timeout, timeUnit, false);
+		if (this.rateLimiter != null) {
+			this.rateLimiter.stop();
+		}
+		if (this.aggregator != null) {
+			this.aggregator.stop();
+		}
+		if (this.batcher != null) {
+			this.batcher.stop();
+		}
+		if (this.asyncEmitter != null) {
+			int left = this.asyncEmitter.stop(remainingNanos(timeout, deadline), TimeUnit.NANOSECONDS);
+			if (left > 0) {
+				LOGGER.warn("Appender {} stopped with {} records left in its async queue", getName(), left);
+			}
+		}
+		if (this.admission != null) {
+			this.admission.stop();
+		}
+		if (this.metrics != null) {
+			this.metrics.stop();
+		}
+		releaseFluency(remainingNanos(timeout, deadline));
+		setStopped();
+		return stopped;
+	}
+
+	/* 0 when there is no timeout, at least 1 once the deadline passed */
+	private static long remainingNanos(final long timeout, final long deadline) {
+		return timeout > 0 ? Math.max(1, deadline - System.nanoTime()) : 0;
+	}
+
+	/**
+	 * releases the shared fluency, the last appender releasing it flushes and closes it
+	 * @param timeoutNanos 0 to wait as long as fluency's own limits allow
+	 */
+	private void releaseFluency(final long timeoutNanos) {
+		final long start = System.nanoTime();
+		/* appenders still using the shared fluency neither flush nor close it */
+		if (this.manager.release(timeoutNanos, TimeUnit.NANOSECONDS) && this.metrics != null) {
+			this.metrics.recordFlush(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Location is required when the record or any layout writes it
+	 */
+	@Override
+	public boolean requiresLocation() {
+		if (this.locationPolicy.requiresLocation() || requiresLocation(getLayout())) {
+			return true;
+		}
+		for (PatternLayout fieldLayout : this.fieldsParams.values()) {
+			if (fieldLayout.requiresLocation()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean requiresLocation(final Layout<? extends Serializable> layout) {
+		return layout instanceof LocationAware && ((LocationAware) layout).requiresLocation();
 	}
 
 	/**
@@ -94,55 +361,245 @@ public class FluencyAppender extends AbstractAppender {
 		if (this.fluency == null) {
 			return;
 		}
+		if (this.metrics == null) {
+			appendEvent(logEvent);
+			return;
+		}
+		long start = System.nanoTime();
+		boolean accepted = appendEvent(logEvent);
+		this.metrics.recordAppend(accepted, System.nanoTime() - start);
+	}
+
+	/**
+	 * appends the event unless it is suppressed
+	 * @param logEvent
+	 * @return false when the event was shed, aggregated or rate limited
+	 */
+	private boolean appendEvent(LogEvent logEvent) {
+		/* Shed events are dropped before any work is spent on them */
+		if (this.admission != null && !this.admission.admit(logEvent.getLevel(), logEvent.getLoggerName())) {
+			return false;
+		}
+		/* Repeats are counted before they reach the rate limits */
+		if (this.aggregator != null && !this.aggregator.forward(logEvent)) {
+			return false;
+		}
+		if (this.rateLimiter != null && !this.rateLimiter.tryAcquire(logEvent)) {
+			return false;
+		}
+		if (this.recordEncoder != null) {
+			appendMessagePack(logEvent);
+			return true;
+		}
 		
 		String level = logEvent.getLevel().name();
         String loggerName = logEvent.getLoggerName();
-        String message = new String(this.getLayout().toByteArray(logEvent));
+        /* Structured payloads are kept as typed values, everything else is rendered by the layout */
+        Object message = this.structuredMessages ? StructuredMessages.toValue(logEvent.getMessage()) : null;
+        if (message == null) {
+        	message = new String(this.getLayout().toByteArray(logEvent));
+        }
         
         Map<String, Object> logEventData = new HashMap<>();
         logEventData.put("level", level);
 
-        StackTraceElement logSource = logEvent.getSource();       
-        
-        
-        
-        if (Assert.isEmpty(logSource)) {
-        	logEventData.put("sourceFile", UNKNOWN);
-        	logEventData.put("sourceClass", UNKNOWN);
-        	logEventData.put("sourceMethod", UNKNOWN);
-        	logEventData.put("sourceLine", 0);
-		} else {
-			logEventData.put("sourceFile", Assert.isNonEmpty(logSource.getFileName()) ? logSource.getFileName() : UNKNOWN);
-			logEventData.put("sourceClass", Assert.isNonEmpty(logSource.getClassName()) ? logSource.getClassName() : UNKNOWN);
-			logEventData.put("sourceMethod", Assert.isNonEmpty(logSource.getMethodName()) ? logSource.getMethodName() : UNKNOWN);
-			logEventData.put("sourceLine", Assert.isNonEmpty(logSource.getLineNumber()) ? logSource.getLineNumber() : 0);
-		}
+        /* Location is only asked for when needed, getSource() may walk the stack */
+        if (this.locationPolicy.captures(logEvent)) {
+        	StackTraceElement logSource = logEvent.getSource();
+        	if (Assert.isEmpty(logSource)) {
+        		logEventData.put("sourceFile", UNKNOWN);
+        		logEventData.put("sourceClass", UNKNOWN);
+        		logEventData.put("sourceMethod", UNKNOWN);
+        		logEventData.put("sourceLine", 0);
+        	} else {
+        		logEventData.put("sourceFile", Assert.isNonEmpty(logSource.getFileName()) ? logSource.getFileName() : UNKNOWN);
+        		logEventData.put("sourceClass", Assert.isNonEmpty(logSource.getClassName()) ? logSource.getClassName() : UNKNOWN);
+        		logEventData.put("sourceMethod", Assert.isNonEmpty(logSource.getMethodName()) ? logSource.getMethodName() : UNKNOWN);
+        		logEventData.put("sourceLine", Assert.isNonEmpty(logSource.getLineNumber()) ? logSource.getLineNumber() : 0);
+        	}
+        }
 
-        StringBuilder loggerNameBuilder = new StringBuilder();
-    	abbreviator.abbreviate(loggerName, loggerNameBuilder);
-        logEventData.put("logger", loggerNameBuilder.toString());
+        logEventData.put("logger", this.loggerNames.get(loggerName).abbreviated);
         
         logEventData.put("loggerFull", loggerName);
         logEventData.put("message", message);
         logEventData.put("thread", logEvent.getThreadName());
         
-        for (Entry<String, PatternLayout> fieldParam : this.fieldsParams.entrySet()) {
-			logEventData.put(fieldParam.getKey(), fieldParam.getValue().toSerializable(logEvent));
+        for (Entry<String, FieldProjection> fieldValue : this.fieldValues.entrySet()) {
+			logEventData.put(fieldValue.getKey(), fieldValue.getValue().toValue(logEvent));
 		}
         
 		/*
 		 * Refer: https://www.elastic.co/guide/en/elasticsearch/reference/current/date.html
 		 * Format that supports nanos is strict_date_optional_time_nanos which is same as DateTimeFormatter.ISO_INSTANT
 		 */
-		logEventData.put("@timestamp", DateTimeFormatter.ISO_INSTANT.format(Instant
-				.ofEpochSecond(logEvent.getInstant().getEpochSecond(), logEvent.getInstant().getNanoOfSecond())));
+		EventTime eventTime = EventTime.fromEpoch(logEvent.getInstant().getEpochSecond(),
+				logEvent.getInstant().getNanoOfSecond());
+		if (this.timestampFormatter != null) {
+			logEventData.put("@timestamp", this.timestampFormatter.format(logEvent.getInstant().getEpochSecond(),
+					logEvent.getInstant().getNanoOfSecond()));
+		} else {
+			logEventData.put("@timestamp", eventTime);
+		}
+
+		if (this.contextData != null) {
+			this.contextData.put(logEvent.getContextData(), logEventData);
+		}
+
+		if (this.throwables != null && logEvent.getThrown() != null) {
+			logEventData.put("exception", this.throwables.toValue(logEvent.getThrown(), logEvent.getTimeMillis()));
+		}
                 
         try {
-			EventTime eventTime = EventTime.fromEpoch(logEvent.getInstant().getEpochSecond(),
-					logEvent.getInstant().getNanoOfSecond());
-            this.fluency.emit(this.tag, eventTime, logEventData);
+            emitMap(this.tag, eventTime, logEvent.getLevel(), logEventData, true);
         } catch (IOException e) {
             LOGGER.error("Error while emitting message: {}", e.getMessage());
         }
+        return true;
+	}
+
+	/**
+	 * emits an encoded record, WARN and more severe records wait for space in
+	 * a full buffer when admission control is on
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level
+	 * @param record
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	private void emitRecord(final long epochSecond, final int nanoOfSecond, final Level level, final byte[] record,
+			final int offset, final int length) throws IOException {
+		EventTime eventTime = EventTime.fromEpoch(epochSecond, nanoOfSecond);
+		if (this.admission == null) {
+			this.fluency.emit(this.tag, eventTime, record, offset, length);
+			return;
+		}
+		long start = System.nanoTime();
+		while (true) {
+			try {
+				this.fluency.emit(this.tag, eventTime, record, offset, length);
+				this.admission.recordEmit(System.nanoTime() - start);
+				return;
+			} catch (BufferFullException e) {
+				if (!this.admission.retryAfterFull(level, start)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * emits a record map, WARN and more severe records wait for space in a
+	 * full buffer when admission control is on and retry is set
+	 * @param tag
+	 * @param eventTime
+	 * @param level
+	 * @param data
+	 * @param retry false to try only once
+	 * @throws IOException
+	 */
+	private void emitMap(final String tag, final EventTime eventTime, final Level level,
+			final Map<String, Object> data, final boolean retry) throws IOException {
+		if (this.metrics == null) {
+			emitMapRecord(tag, eventTime, level, data, retry);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			emitMapRecord(tag, eventTime, level, data, retry);
+		} catch (IOException | RuntimeException e) {
+			this.metrics.recordEmitError();
+			throw e;
+		}
+		/* the map is serialized by fluency, its size is not known here */
+		this.metrics.recordEmit(0, System.nanoTime() - start);
+	}
+
+	private void emitMapRecord(final String tag, final EventTime eventTime, final Level level,
+			final Map<String, Object> data, final boolean retry) throws IOException {
+		if (this.admission == null || !retry) {
+			this.fluency.emit(tag, eventTime, data);
+			return;
+		}
+		long start = System.nanoTime();
+		while (true) {
+			try {
+				this.fluency.emit(tag, eventTime, data);
+				this.admission.recordEmit(System.nanoTime() - start);
+				return;
+			} catch (BufferFullException e) {
+				if (!this.admission.retryAfterFull(level, start)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * emits a record about the appender itself, it has the usual keys and
+	 * the appender class as logger. Reports are sent from the housekeeper
+	 * thread, they are tried once and never wait for space in a full buffer
+	 * @param tag
+	 * @param level
+	 * @param message
+	 * @param details
+	 */
+	private void emitReport(final String tag, final Level level, final String message,
+			final Map<String, Object> details) {
+		if (this.fluency == null) {
+			return;
+		}
+		String loggerName = getClass().getName();
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("level", level.name());
+		data.put("logger", this.loggerNames.get(loggerName).abbreviated);
+		data.put("loggerFull", loggerName);
+		data.put("message", message);
+		data.put("thread", Thread.currentThread().getName());
+		data.putAll(details);
+		long now = System.currentTimeMillis();
+		long epochSecond = now / 1000;
+		int nanoOfSecond = (int) (now % 1000) * 1000000;
+		EventTime eventTime = EventTime.fromEpoch(epochSecond, nanoOfSecond);
+		if (this.timestampFormatter != null) {
+			data.put("@timestamp", this.timestampFormatter.format(epochSecond, nanoOfSecond));
+		} else {
+			data.put("@timestamp", eventTime);
+		}
+		try {
+			emitMap(tag, eventTime, level, data, false);
+		} catch (BufferFullException e) {
+			if (this.metrics != null) {
+				this.metrics.recordReportDropped();
+			}
+			LOGGER.warn("Report of appender {} dropped, fluency's buffer is full", getName());
+		} catch (IOException e) {
+			LOGGER.error("Error while emitting report of appender {}: {}", getName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * appends the event as raw MessagePack bytes, no per event map is built
+	 * @param logEvent
+	 */
+	private void appendMessagePack(LogEvent logEvent) {
+		MessagePackBuffer buffer = this.recordEncoder.encode(logEvent);
+		long epochSecond = logEvent.getInstant().getEpochSecond();
+		int nanoOfSecond = logEvent.getInstant().getNanoOfSecond();
+		if (this.batcher != null) {
+			this.batcher.add(buffer, epochSecond, nanoOfSecond, logEvent.getLevel());
+			return;
+		}
+		if (this.asyncEmitter != null) {
+			this.asyncEmitter.enqueue(buffer, epochSecond, nanoOfSecond, logEvent.getLevel());
+			return;
+		}
+		try {
+			this.fluencySink.emit(epochSecond, nanoOfSecond, logEvent.getLevel(), buffer.array(), 0, buffer.size());
+		} catch (IOException e) {
+			LOGGER.error("Error while emitting message: {}", e.getMessage());
+		}
 	}
 }
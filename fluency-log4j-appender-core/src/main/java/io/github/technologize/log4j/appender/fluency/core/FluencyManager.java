@@ -0,0 +1,223 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.appender.AbstractManager;
+import org.apache.logging.log4j.core.appender.ManagerFactory;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.komamitsu.fluency.Fluency;
+
+/**
+ * Reference counted owner of a fluency instance, shared by all appenders
+ * whose {@link SharedFluencyConfig#getManagerKey()} is equal: they use one
+ * flusher thread, one set of connections and one buffer. The appenders of
+ * a new configuration acquire the manager before the old ones release it,
+ * so a reconfiguration with unchanged settings keeps the live fluency.
+ * Fluency is flushed and closed when the last appender releases it. A
+ * plain {@link FluencyConfig} is not shared and fluency's defaults apply.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class FluencyManager extends AbstractManager {
+
+	private static final FluencyManagerFactory FACTORY = new FluencyManagerFactory();
+
+	/* fluency's defaults for configs which do not tell */
+	private static final long DEFAULT_MAX_BUFFER_SIZE = 536870912;
+	private static final int DEFAULT_WAIT_SECONDS = 60;
+
+	/* unique names of live managers by manager key and by plain config, guarded by NAMES */
+	private static final Map<Object, String> NAMES = new HashMap<>();
+	private static final Map<Object, String> PLAIN_NAMES = new IdentityHashMap<>();
+	private static long lastNameId;
+
+	private final Fluency fluency;
+	private final long maxBufferSize;
+	private final boolean jvmHeapBufferMode;
+	private final int waitUntilBufferFlushed;
+	private final int waitUntilFlusherTerminated;
+	/* thread which released the manager last and closed fluency */
+	private volatile Thread lastReleaser;
+
+	private FluencyManager(final String name, final Fluency fluency, final FluencyConfig config) {
+		super(null, name);
+		this.fluency = fluency;
+		if (config instanceof SharedFluencyConfig) {
+			SharedFluencyConfig shared = (SharedFluencyConfig) config;
+			this.maxBufferSize = shared.getMaxBufferSize();
+			this.jvmHeapBufferMode = shared.isJvmHeapBufferMode();
+			this.waitUntilBufferFlushed = shared.getWaitUntilBufferFlushed();
+			this.waitUntilFlusherTerminated = shared.getWaitUntilFlusherTerminated();
+		} else {
+			this.maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+			this.jvmHeapBufferMode = false;
+			this.waitUntilBufferFlushed = DEFAULT_WAIT_SECONDS;
+			this.waitUntilFlusherTerminated = DEFAULT_WAIT_SECONDS;
+		}
+	}
+
+	/**
+	 * returns manager for the config, fluency is made when there is none yet
+	 * @param config
+	 * @return
+	 */
+	static FluencyManager getFluencyManager(final FluencyConfig config) {
+		return getManager(managerName(config), FACTORY, config);
+	}
+
+	/*
+	 * Equal manager keys get the same name, a plain config gets a fluency of
+	 * its own. The printable name is numbered when a live manager of another
+	 * key or config already shows it.
+	 */
+	private static String managerName(final FluencyConfig config) {
+		boolean shared = config instanceof SharedFluencyConfig;
+		Map<Object, String> names = shared ? NAMES : PLAIN_NAMES;
+		Object key = shared ? ((SharedFluencyConfig) config).getManagerKey() : config;
+		synchronized (NAMES) {
+			String name = names.get(key);
+			if (name == null) {
+				String printable = shared ? ((SharedFluencyConfig) config).getManagerName()
+						: config.getClass().getName();
+				name = printable;
+				while (NAMES.containsValue(name) || PLAIN_NAMES.containsValue(name)) {
+					name = printable + " #" + ++lastNameId;
+				}
+				names.put(key, name);
+			}
+			return name;
+		}
+	}
+
+	/* the name is free again once its manager is released */
+	private static void forgetName(final String name) {
+		synchronized (NAMES) {
+			NAMES.values().remove(name);
+			PLAIN_NAMES.values().remove(name);
+		}
+	}
+
+	/**
+	 * returns the shared fluency
+	 * @return
+	 */
+	Fluency getFluency() {
+		return fluency;
+	}
+
+	/**
+	 * returns max size of fluency's buffer in bytes
+	 * @return
+	 */
+	long getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	/**
+	 * returns whether fluency's buffer chunks are on the JVM heap
+	 * @return
+	 */
+	boolean isJvmHeapBufferMode() {
+		return jvmHeapBufferMode;
+	}
+
+	/**
+	 * Stops using the manager, the last release flushes and closes fluency
+	 * @param timeout
+	 * @param timeUnit
+	 * @return whether this release closed fluency
+	 */
+	boolean release(final long timeout, final TimeUnit timeUnit) {
+		stop(timeout, timeUnit);
+		return lastReleaser == Thread.currentThread();
+	}
+
+	/**
+	 * flushes all buffered chunks at once and closes fluency on a helper
+	 * thread, so that a sender stuck on retries does not hold up log4j's
+	 * shutdown beyond the timeout
+	 */
+	@Override
+	protected boolean releaseSub(final long timeout, final TimeUnit timeUnit) {
+		forgetName(getName());
+		lastReleaser = Thread.currentThread();
+		if (fluency == null) {
+			return true;
+		}
+		final long buffered = fluency.getBufferedDataSize();
+		Thread closer = Log4jThreadFactory.createDaemonThreadFactory("FluencyClose").newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fluency.flush();
+					fluency.waitUntilAllBufferFlushed(waitUntilBufferFlushed);
+					fluency.close();
+					fluency.waitUntilFlusherTerminated(waitUntilFlusherTerminated);
+				} catch (IOException e) {
+					LOGGER.error("Error while closing fluency {}: {}", getName(), e.getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		closer.start();
+		try {
+			if (timeout > 0) {
+				timeUnit.timedJoin(closer, timeout);
+			} else {
+				closer.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long left = fluency.getBufferedDataSize();
+		if (closer.isAlive()) {
+			LOGGER.warn("Fluency {} was still flushing when stopped, {} of {} buffered bytes not flushed yet",
+					getName(), left, buffered);
+			return false;
+		}
+		if (left > 0) {
+			LOGGER.warn("Fluency {} flushed {} bytes on stop and abandoned {} bytes (kept in fileBackupDir if set)",
+					getName(), buffered - left, left);
+			return false;
+		}
+		LOGGER.debug("Fluency {} flushed {} bytes on stop", getName(), buffered);
+		return true;
+	}
+
+	/**
+	 * Makes fluency of a config
+	 */
+	private static final class FluencyManagerFactory implements ManagerFactory<FluencyManager, FluencyConfig> {
+		@Override
+		public FluencyManager createManager(final String name, final FluencyConfig config) {
+			FluencyManager manager = new FluencyManager(name, config.makeFluency(), config);
+			if (!manager.jvmHeapBufferMode && manager.maxBufferSize > DirectMemory.max()) {
+				LOGGER.warn("maxBufferSize {} of fluency {} exceeds the max direct memory of {} bytes, raise "
+						+ "-XX:MaxDirectMemorySize or lower maxBufferSize", manager.maxBufferSize, name,
+						DirectMemory.max());
+			}
+			return manager;
+		}
+	}
+}
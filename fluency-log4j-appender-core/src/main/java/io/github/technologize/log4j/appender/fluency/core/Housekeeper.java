@@ -0,0 +1,75 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * One daemon thread shared by all appenders for periodic background work
+ * (sweeping idle batches, closing windows, reporting). Tasks have to be
+ * short and must not block.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class Housekeeper {
+
+	private static final StatusLogger LOGGER = StatusLogger.getLogger();
+
+	private Housekeeper() {
+	}
+
+	/**
+	 * Runs the task every period until the returned future is cancelled,
+	 * a failing run is logged and does not stop later runs
+	 * @param task
+	 * @param period
+	 * @param timeUnit
+	 * @return
+	 */
+	static ScheduledFuture<?> schedule(final Runnable task, final long period, final TimeUnit timeUnit) {
+		return Holder.EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Fluency appender background task failed", e);
+				}
+			}
+		}, period, period, timeUnit);
+	}
+
+	/**
+	 * Lazily created so appenders without background work start no thread
+	 */
+	private static final class Holder {
+		private static final ScheduledExecutorService EXECUTOR = create();
+
+		private static ScheduledExecutorService create() {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+					Log4jThreadFactory.createDaemonThreadFactory("FluencyHousekeeper"));
+			executor.setRemoveOnCancelPolicy(true);
+			return executor;
+		}
+	}
+}
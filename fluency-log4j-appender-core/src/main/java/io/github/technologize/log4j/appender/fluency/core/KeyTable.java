@@ -0,0 +1,107 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Record keys and constant values packed once per appender, so that writing
+ * them is a plain copy of bytes.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class KeyTable {
+
+	static final String UNKNOWN = "<unknown>";
+
+	/* keys of every record besides fields and context data */
+	static final List<String> RECORD_KEYS = Collections.unmodifiableList(Arrays.asList("level", "sourceFile",
+			"sourceClass", "sourceMethod", "sourceLine", "logger", "loggerFull", "message", "thread", "@timestamp",
+			"exception"));
+
+	final byte[] level = pack("level");
+	final byte[] sourceFile = pack("sourceFile");
+	final byte[] sourceClass = pack("sourceClass");
+	final byte[] sourceMethod = pack("sourceMethod");
+	final byte[] sourceLine = pack("sourceLine");
+	final byte[] logger = pack("logger");
+	final byte[] loggerFull = pack("loggerFull");
+	final byte[] message = pack("message");
+	final byte[] thread = pack("thread");
+	final byte[] timestamp = pack("@timestamp");
+	final byte[] exception = pack("exception");
+	final byte[] unknown = pack(UNKNOWN);
+
+	/* map header of records with and without source location */
+	final byte[] header;
+	final byte[] headerWithoutLocation;
+
+	private final byte[][] fields;
+
+	/* number of entries covered by the headers */
+	final int entries;
+	final int entriesWithoutLocation;
+
+	/**
+	 * @param fieldNames
+	 * @param extraEntries number of other entries always present in the record
+	 */
+	KeyTable(final String[] fieldNames, final int extraEntries) {
+		this.fields = new byte[fieldNames.length][];
+		for (int i = 0; i < fieldNames.length; i++) {
+			this.fields[i] = pack(fieldNames[i]);
+		}
+		/* level, 4 source keys, logger, loggerFull, message, thread, @timestamp */
+		this.entries = 10 + fieldNames.length + extraEntries;
+		this.entriesWithoutLocation = entries - 4;
+		this.header = packMapHeader(entries);
+		this.headerWithoutLocation = packMapHeader(entriesWithoutLocation);
+	}
+
+	/**
+	 * returns packed name of the field at given index
+	 * @param index
+	 * @return
+	 */
+	byte[] field(final int index) {
+		return fields[index];
+	}
+
+	/**
+	 * packs a string into its MessagePack representation
+	 * @param value
+	 * @return
+	 */
+	static byte[] pack(final String value) {
+		MessagePackBuffer buffer = new MessagePackBuffer(value.length() * 3 + 5);
+		buffer.packString(value);
+		return Arrays.copyOf(buffer.array(), buffer.size());
+	}
+
+	/**
+	 * packs a map header into its MessagePack representation
+	 * @param size
+	 * @return
+	 */
+	static byte[] packMapHeader(final int size) {
+		MessagePackBuffer buffer = new MessagePackBuffer(16);
+		buffer.packMapHeader(size);
+		return Arrays.copyOf(buffer.array(), buffer.size());
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, 8 per
+ * power of two, so recorded values keep 3 significant bits (at most 12.5%
+ * error) over the whole long range in a fixed number of striped counters.
+ * Percentiles are read from snapshots, two snapshots give the percentiles
+ * of the interval between them.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * records one value, negative values are recorded as 0
+	 * @param nanos
+	 */
+	void record(final long nanos) {
+		counts[index(Math.max(0, nanos))].increment();
+	}
+
+	/**
+	 * returns current counts per bucket
+	 * @return
+	 */
+	long[] snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * returns the value at or below which the given fraction of values fall
+	 * @param snapshot
+	 * @param previous earlier snapshot to subtract, null for all values recorded
+	 * @param fraction 0..1, 1 for the max
+	 * @return upper bound of the bucket holding the percentile, 0 when nothing was recorded
+	 */
+	static long percentile(final long[] snapshot, final long[] previous, final double fraction) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += count(snapshot, previous, i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += count(snapshot, previous, i);
+			if (seen >= rank) {
+				return highestValue(i);
+			}
+		}
+		return highestValue(BUCKETS - 1);
+	}
+
+	/**
+	 * returns number of values between the snapshots
+	 * @param snapshot
+	 * @param previous null for all values recorded
+	 * @return
+	 */
+	static long count(final long[] snapshot, final long[] previous) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += count(snapshot, previous, i);
+		}
+		return total;
+	}
+
+	private static long count(final long[] snapshot, final long[] previous, final int index) {
+		return previous != null ? snapshot[index] - previous[index] : snapshot[index];
+	}
+
+	private static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	private static long highestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Decides for which events source location is written. Events at or above
+ * the configured level, or carrying one of the configured markers, get
+ * location, other events do not ask for it so log4j never walks the stack
+ * for them.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class LocationPolicy {
+
+	private final Level level;
+	private final String[] markers;
+
+	/**
+	 * @param level minimum level to capture location for
+	 * @param markers markers for which location is always captured
+	 */
+	LocationPolicy(final Level level, final String[] markers) {
+		this.level = level;
+		this.markers = markers;
+	}
+
+	/**
+	 * returns whether any event may need location
+	 * @return
+	 */
+	boolean requiresLocation() {
+		return level != Level.OFF || markers.length > 0;
+	}
+
+	/**
+	 * returns whether location of given event is written
+	 * @param logEvent
+	 * @return
+	 */
+	boolean captures(final LogEvent logEvent) {
+		if (level == Level.ALL) {
+			return true;
+		}
+		if (level != Level.OFF && logEvent.getLevel().isMoreSpecificThan(level)) {
+			return true;
+		}
+		Marker marker = logEvent.getMarker();
+		if (marker != null) {
+			for (String name : markers) {
+				if (marker.isInstanceOf(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.core.pattern.NameAbbreviator;
+
+/**
+ * Bounded cache from full logger name to its abbreviated form and the packed
+ * bytes of both.
+ *
+ * Eviction follows the CLOCK policy: a hit marks the entry as referenced,
+ * when the cache overflows one thread sweeps it, dropping entries that were
+ * not referenced since the previous sweep.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class LoggerNameCache {
+
+	private static final NameAbbreviator abbreviator = NameAbbreviator.getAbbreviator("1.");
+
+	private final int maxSize;
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize
+	 */
+	LoggerNameCache(final int maxSize) {
+		this.maxSize = Math.max(maxSize, 1);
+		this.entries = new ConcurrentHashMap<>(Math.min(this.maxSize, 1024));
+	}
+
+	/**
+	 * returns cached entry for the logger name, creating it on a miss
+	 * @param name
+	 * @return
+	 */
+	Entry get(final String name) {
+		final String loggerName = name != null ? name : "";
+		Entry entry = entries.get(loggerName);
+		if (entry != null) {
+			hits.increment();
+			if (!entry.referenced) {
+				entry.referenced = true;
+			}
+			return entry;
+		}
+		misses.increment();
+		entry = new Entry(loggerName);
+		Entry existing = entries.putIfAbsent(loggerName, entry);
+		if (existing != null) {
+			return existing;
+		}
+		if (entries.size() > maxSize) {
+			evict();
+		}
+		return entry;
+	}
+
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			/* another thread is already making room */
+			return;
+		}
+		try {
+			int excess = entries.size() - maxSize;
+			/* two passes at most, the first one clears reference bits */
+			for (int pass = 0; pass < 2 && excess > 0; pass++) {
+				Iterator<Entry> iterator = entries.values().iterator();
+				while (iterator.hasNext() && excess > 0) {
+					Entry entry = iterator.next();
+					if (entry.referenced) {
+						entry.referenced = false;
+					} else {
+						iterator.remove();
+						evictions.increment();
+						excess--;
+					}
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * returns number of lookups served from the cache
+	 * @return
+	 */
+	long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * returns number of lookups which had to abbreviate the name
+	 * @return
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * returns number of entries dropped to stay within max size
+	 * @return
+	 */
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * returns current number of entries
+	 * @return
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Logger name in its abbreviated and full form
+	 */
+	static final class Entry {
+		final String abbreviated;
+		final byte[] packedAbbreviated;
+		final byte[] packedFull;
+		volatile boolean referenced;
+
+		private Entry(final String loggerName) {
+			StringBuilder builder = new StringBuilder(loggerName.length());
+			abbreviator.abbreviate(loggerName, builder);
+			this.abbreviated = builder.toString();
+			this.packedAbbreviated = KeyTable.pack(abbreviated);
+			this.packedFull = KeyTable.pack(loggerName);
+		}
+	}
+}
@@ -0,0 +1,571 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+
+/**
+ * Growable, reusable MessagePack output buffer.
+ *
+ * Strings are UTF-8 encoded straight from their characters, so packing a
+ * {@link CharSequence} does not allocate. The buffer also acts as a
+ * {@link ByteBufferDestination}, which lets a {@code Layout} encode the
+ * message text directly into the record.
+ *
+ * Instances are not thread safe, they are meant to be reused by one thread.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public final class MessagePackBuffer implements ByteBufferDestination {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final int SCRATCH_CAPACITY = 8192;
+	private static final int STR32_HEADER_LENGTH = 5;
+	private static final int MAP32_HEADER_LENGTH = 5;
+	private static final byte EVENT_TIME_TYPE = 0;
+
+	private byte[] bytes;
+	private int position;
+	/* flip and clear are called through Buffer, built on JDK 9+ they would otherwise need JDK 9 at run time */
+	private ByteBuffer scratch;
+
+	/**
+	 * Creates buffer with default capacity
+	 */
+	public MessagePackBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 */
+	public MessagePackBuffer(final int initialCapacity) {
+		this.bytes = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	/**
+	 * discards the content, keeps the allocated memory
+	 */
+	public void reset() {
+		this.position = 0;
+		if (scratch != null) {
+			((Buffer) scratch).clear();
+		}
+	}
+
+	/**
+	 * discards the content and releases memory above given capacity
+	 * @param maxRetainedCapacity
+	 */
+	public void reset(final int maxRetainedCapacity) {
+		reset();
+		if (bytes.length > maxRetainedCapacity) {
+			bytes = new byte[maxRetainedCapacity];
+		}
+	}
+
+	/**
+	 * returns backing array, valid up to {@link #size()}
+	 * @return
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	/**
+	 * returns number of bytes written
+	 * @return
+	 */
+	public int size() {
+		return position;
+	}
+
+	/**
+	 * moves write position, used to reserve or truncate bytes
+	 * @param position
+	 */
+	public void position(final int position) {
+		ensureCapacity(position - this.position);
+		this.position = position;
+	}
+
+	/**
+	 * packs map header
+	 * @param size
+	 */
+	public void packMapHeader(final int size) {
+		if (size < 16) {
+			writeByte(0x80 | size);
+		} else if (size < 65536) {
+			writeByte(0xde);
+			writeShort(size);
+		} else {
+			writeByte(0xdf);
+			writeInt(size);
+		}
+	}
+
+	/**
+	 * Starts a map whose size is not known upfront
+	 * @return mark to be passed to {@link #endMap(int, int)}
+	 */
+	public int beginMap() {
+		final int mark = position;
+		position(position + MAP32_HEADER_LENGTH);
+		return mark;
+	}
+
+	/**
+	 * Completes map started with {@link #beginMap()}
+	 * @param mark
+	 * @param size number of entries written since {@link #beginMap()}
+	 */
+	public void endMap(final int mark, final int size) {
+		final int end = position;
+		position = mark;
+		writeByte(0xdf);
+		writeInt(size);
+		position = end;
+	}
+
+	/**
+	 * packs a value according to its type, numbers, booleans, strings, maps,
+	 * collections and arrays keep their type, other objects are packed as
+	 * their string representation
+	 * @param value
+	 */
+	public void packValue(final Object value) {
+		if (value == null) {
+			packNil();
+		} else if (value instanceof CharSequence) {
+			packString((CharSequence) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte) {
+			packLong(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			packDouble((Double) value);
+		} else if (value instanceof Float) {
+			packFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			packBoolean((Boolean) value);
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			packMapHeader(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				packString(String.valueOf(entry.getKey()));
+				packValue(entry.getValue());
+			}
+		} else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			packArrayHeader(collection.size());
+			for (Object element : collection) {
+				packValue(element);
+			}
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			packArrayHeader(array.length);
+			for (Object element : array) {
+				packValue(element);
+			}
+		} else {
+			packString(String.valueOf(value));
+		}
+	}
+
+	/**
+	 * packs array header
+	 * @param size
+	 */
+	public void packArrayHeader(final int size) {
+		if (size < 16) {
+			writeByte(0x90 | size);
+		} else if (size < 65536) {
+			writeByte(0xdc);
+			writeShort(size);
+		} else {
+			writeByte(0xdd);
+			writeInt(size);
+		}
+	}
+
+	/**
+	 * packs string header for a payload of given UTF-8 length
+	 * @param length
+	 */
+	public void packStringHeader(final int length) {
+		if (length < 32) {
+			writeByte(0xa0 | length);
+		} else if (length < 256) {
+			writeByte(0xd9);
+			writeByte(length);
+		} else if (length < 65536) {
+			writeByte(0xda);
+			writeShort(length);
+		} else {
+			writeByte(0xdb);
+			writeInt(length);
+		}
+	}
+
+	/**
+	 * packs binary header
+	 * @param length
+	 */
+	public void packBinaryHeader(final int length) {
+		if (length < 256) {
+			writeByte(0xc4);
+			writeByte(length);
+		} else if (length < 65536) {
+			writeByte(0xc5);
+			writeShort(length);
+		} else {
+			writeByte(0xc6);
+			writeInt(length);
+		}
+	}
+
+	/**
+	 * packs string, nil if value is null
+	 * @param value
+	 */
+	public void packString(final CharSequence value) {
+		if (value == null) {
+			packNil();
+			return;
+		}
+		final int charLength = value.length();
+		final int utf8Length = utf8Length(value, charLength);
+		packStringHeader(utf8Length);
+		ensureCapacity(utf8Length);
+		encodeUtf8(value, charLength);
+	}
+
+	/**
+	 * packs an already UTF-8 encoded string
+	 * @param utf8
+	 * @param offset
+	 * @param length
+	 */
+	public void packString(final byte[] utf8, final int offset, final int length) {
+		packStringHeader(length);
+		writePayload(utf8, offset, length);
+	}
+
+	/**
+	 * packs nil
+	 */
+	public void packNil() {
+		writeByte(0xc0);
+	}
+
+	/**
+	 * packs boolean
+	 * @param value
+	 */
+	public void packBoolean(final boolean value) {
+		writeByte(value ? 0xc3 : 0xc2);
+	}
+
+	/**
+	 * packs integer using the smallest representation
+	 * @param value
+	 */
+	public void packLong(final long value) {
+		if (value >= 0) {
+			if (value < 128) {
+				writeByte((int) value);
+			} else if (value < 256) {
+				writeByte(0xcc);
+				writeByte((int) value);
+			} else if (value < 65536) {
+				writeByte(0xcd);
+				writeShort((int) value);
+			} else if (value < 4294967296L) {
+				writeByte(0xce);
+				writeInt((int) value);
+			} else {
+				writeByte(0xcf);
+				writeLong(value);
+			}
+		} else {
+			if (value >= -32) {
+				writeByte((int) value);
+			} else if (value >= Byte.MIN_VALUE) {
+				writeByte(0xd0);
+				writeByte((int) value);
+			} else if (value >= Short.MIN_VALUE) {
+				writeByte(0xd1);
+				writeShort((int) value);
+			} else if (value >= Integer.MIN_VALUE) {
+				writeByte(0xd2);
+				writeInt((int) value);
+			} else {
+				writeByte(0xd3);
+				writeLong(value);
+			}
+		}
+	}
+
+	/**
+	 * packs double
+	 * @param value
+	 */
+	public void packDouble(final double value) {
+		writeByte(0xcb);
+		writeLong(Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * packs float
+	 * @param value
+	 */
+	public void packFloat(final float value) {
+		writeByte(0xca);
+		writeInt(Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * packs extension type header
+	 * @param type
+	 * @param length
+	 */
+	public void packExtensionTypeHeader(final byte type, final int length) {
+		switch (length) {
+		case 1:
+			writeByte(0xd4);
+			break;
+		case 2:
+			writeByte(0xd5);
+			break;
+		case 4:
+			writeByte(0xd6);
+			break;
+		case 8:
+			writeByte(0xd7);
+			break;
+		case 16:
+			writeByte(0xd8);
+			break;
+		default:
+			if (length < 256) {
+				writeByte(0xc7);
+				writeByte(length);
+			} else if (length < 65536) {
+				writeByte(0xc8);
+				writeShort(length);
+			} else {
+				writeByte(0xc9);
+				writeInt(length);
+			}
+			writeByte(type);
+			return;
+		}
+		writeByte(type);
+	}
+
+	/**
+	 * packs Fluentd EventTime, extension type 0 holding seconds and nanos
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 */
+	public void packEventTime(final long epochSecond, final int nanoOfSecond) {
+		packExtensionTypeHeader(EVENT_TIME_TYPE, 8);
+		writeInt((int) epochSecond);
+		writeInt(nanoOfSecond);
+	}
+
+	/**
+	 * copies pre-packed bytes as they are
+	 * @param packed
+	 */
+	public void writePayload(final byte[] packed) {
+		writePayload(packed, 0, packed.length);
+	}
+
+	/**
+	 * copies pre-packed bytes as they are
+	 * @param packed
+	 * @param offset
+	 * @param length
+	 */
+	public void writePayload(final byte[] packed, final int offset, final int length) {
+		ensureCapacity(length);
+		System.arraycopy(packed, offset, bytes, position, length);
+		position += length;
+	}
+
+	/**
+	 * Starts a string whose length is not known upfront, bytes are appended
+	 * through {@link ByteBufferDestination} methods until
+	 * {@link #endString(int)} is called
+	 * @return mark to be passed to {@link #endString(int)}
+	 */
+	public int beginString() {
+		final int mark = position;
+		position(position + STR32_HEADER_LENGTH);
+		if (scratch != null) {
+			((Buffer) scratch).clear();
+		}
+		return mark;
+	}
+
+	/**
+	 * Completes string started with {@link #beginString()}, writing the
+	 * smallest header and moving the payload next to it
+	 * @param mark
+	 */
+	public void endString(final int mark) {
+		drainScratch();
+		final int payloadStart = mark + STR32_HEADER_LENGTH;
+		final int length = position - payloadStart;
+		position = mark;
+		packStringHeader(length);
+		if (position != payloadStart) {
+			System.arraycopy(bytes, payloadStart, bytes, position, length);
+		}
+		position += length;
+	}
+
+	@Override
+	public ByteBuffer getByteBuffer() {
+		if (scratch == null) {
+			scratch = ByteBuffer.allocate(SCRATCH_CAPACITY);
+		}
+		return scratch;
+	}
+
+	@Override
+	public ByteBuffer drain(final ByteBuffer buf) {
+		((Buffer) buf).flip();
+		final int length = buf.remaining();
+		if (length > 0) {
+			ensureCapacity(length);
+			buf.get(bytes, position, length);
+			position += length;
+		}
+		((Buffer) buf).clear();
+		return buf;
+	}
+
+	@Override
+	public void writeBytes(final ByteBuffer data) {
+		drainScratch();
+		final int length = data.remaining();
+		ensureCapacity(length);
+		data.get(bytes, position, length);
+		position += length;
+	}
+
+	@Override
+	public void writeBytes(final byte[] data, final int offset, final int length) {
+		drainScratch();
+		writePayload(data, offset, length);
+	}
+
+	private void drainScratch() {
+		if (scratch != null && scratch.position() > 0) {
+			drain(scratch);
+		}
+	}
+
+	private void writeByte(final int value) {
+		ensureCapacity(1);
+		bytes[position++] = (byte) value;
+	}
+
+	private void writeShort(final int value) {
+		ensureCapacity(2);
+		bytes[position++] = (byte) (value >>> 8);
+		bytes[position++] = (byte) value;
+	}
+
+	private void writeInt(final int value) {
+		ensureCapacity(4);
+		bytes[position++] = (byte) (value >>> 24);
+		bytes[position++] = (byte) (value >>> 16);
+		bytes[position++] = (byte) (value >>> 8);
+		bytes[position++] = (byte) value;
+	}
+
+	private void writeLong(final long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	private void ensureCapacity(final int additional) {
+		final int required = position + additional;
+		if (required > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length << 1));
+		}
+	}
+
+	private static int utf8Length(final CharSequence value, final int charLength) {
+		int length = charLength;
+		for (int i = 0; i < charLength; i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					length += 1;
+				} else if (Character.isHighSurrogate(c) && i + 1 < charLength
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					/* 4 bytes for 2 chars */
+					length += 2;
+					i++;
+				} else if (Character.isSurrogate(c)) {
+					/* malformed surrogate is replaced by '?' */
+				} else {
+					length += 2;
+				}
+			}
+		}
+		return length;
+	}
+
+	private void encodeUtf8(final CharSequence value, final int charLength) {
+		final byte[] out = bytes;
+		int p = position;
+		for (int i = 0; i < charLength; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				out[p++] = (byte) c;
+			} else if (c < 0x800) {
+				out[p++] = (byte) (0xc0 | (c >> 6));
+				out[p++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < charLength
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				out[p++] = (byte) (0xf0 | (codePoint >> 18));
+				out[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				out[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				out[p++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				out[p++] = (byte) '?';
+			} else {
+				out[p++] = (byte) (0xe0 | (c >> 12));
+				out[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				out[p++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		position = p;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.util.Assert;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Metrics of the appender: counters and latency histograms exposed as JMX
+ * MBean and optionally sent as periodic records to their own tag
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = MetricsConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = MetricsConfig.ELEMENT_TYPE, printObject = true)
+public class MetricsConfig {
+
+	/**
+	 * Metrics plugin name
+	 */
+	public static final String PLUGIN_NAME = "Metrics";
+
+	/**
+	 * Metrics element type
+	 */
+	public static final String ELEMENT_TYPE = "metrics";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_REPORT_INTERVAL_MILLIS = 60000;
+
+	private boolean jmx = true;
+	private String reportTag;
+	private int reportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+
+	/**
+	 * returns whether metrics are registered as JMX MBean
+	 * @return
+	 */
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	/**
+	 * returns tag metrics records are sent to, null when they are not sent
+	 * @return
+	 */
+	public String getReportTag() {
+		return reportTag;
+	}
+
+	/**
+	 * returns interval of metrics records
+	 * @return
+	 */
+	public int getReportIntervalMillis() {
+		return reportIntervalMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "MetricsConfig [jmx=" + jmx + ", reportTag=" + reportTag + ", reportIntervalMillis="
+				+ reportIntervalMillis + "]";
+	}
+
+	/**
+	 * Creates metrics config
+	 * @param jmx
+	 * @param reportTag
+	 * @param reportIntervalMillis
+	 * @return
+	 */
+	@PluginFactory
+	public static MetricsConfig createMetricsConfig(
+			@PluginAttribute(value = "jmx", defaultBoolean = true) final boolean jmx,
+			@PluginAttribute(value = "reportTag") final String reportTag,
+			@PluginAttribute(value = "reportIntervalMillis", defaultInt = DEFAULT_REPORT_INTERVAL_MILLIS) final int reportIntervalMillis) {
+		MetricsConfig config = new MetricsConfig();
+		config.jmx = jmx;
+		config.reportTag = Assert.isNonEmpty(reportTag) ? reportTag.trim() : null;
+		if (reportIntervalMillis > 0) {
+			config.reportIntervalMillis = reportIntervalMillis;
+		} else {
+			LOGGER.error("reportIntervalMillis must be > 0, using {}", config.reportIntervalMillis);
+		}
+		return config;
+	}
+}
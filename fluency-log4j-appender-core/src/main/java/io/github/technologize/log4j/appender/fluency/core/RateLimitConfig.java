@@ -0,0 +1,136 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * One rate limit rule: events of matching loggers at or below the level are
+ * limited per (logger, level, message format) to a number of events per
+ * window, the rest is suppressed and summarized when the window ends
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = RateLimitConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = RateLimitConfig.ELEMENT_TYPE, printObject = true)
+public class RateLimitConfig {
+
+	/**
+	 * RateLimit plugin name
+	 */
+	public static final String PLUGIN_NAME = "RateLimit";
+
+	/**
+	 * RateLimit element type
+	 */
+	public static final String ELEMENT_TYPE = "rateLimit";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_LIMIT = 100;
+	private static final int DEFAULT_WINDOW_MILLIS = 1000;
+
+	private String logger = "";
+	private Level level = Level.INFO;
+	private int limit = DEFAULT_LIMIT;
+	private int windowMillis = DEFAULT_WINDOW_MILLIS;
+	private boolean sampleExcess = true;
+
+	/**
+	 * returns logger name prefix the rule applies to, empty for all loggers
+	 * @return
+	 */
+	public String getLogger() {
+		return logger;
+	}
+
+	/**
+	 * returns most severe level the rule applies to
+	 * @return
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * returns number of events let through per key and window
+	 * @return
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * returns window length
+	 * @return
+	 */
+	public int getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * returns whether events beyond the limit are sampled at 1st, 2nd, 4th, 8th... excess event
+	 * @return
+	 */
+	public boolean isSampleExcess() {
+		return sampleExcess;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimitConfig [logger=" + logger + ", level=" + level + ", limit=" + limit + ", windowMillis="
+				+ windowMillis + ", sampleExcess=" + sampleExcess + "]";
+	}
+
+	/**
+	 * Creates rate limit rule
+	 * @param logger
+	 * @param level
+	 * @param limit
+	 * @param windowMillis
+	 * @param sampleExcess
+	 * @return
+	 */
+	@PluginFactory
+	public static RateLimitConfig createRateLimitConfig(
+			@PluginAttribute(value = "logger") final String logger,
+			@PluginAttribute(value = "level", defaultString = "INFO") final String level,
+			@PluginAttribute(value = "limit", defaultInt = DEFAULT_LIMIT) final int limit,
+			@PluginAttribute(value = "windowMillis", defaultInt = DEFAULT_WINDOW_MILLIS) final int windowMillis,
+			@PluginAttribute(value = "sampleExcess", defaultBoolean = true) final boolean sampleExcess) {
+		RateLimitConfig config = new RateLimitConfig();
+		config.logger = logger != null ? logger.trim() : "";
+		config.level = ConfigValues.parseLevel("level", level, config.level);
+		if (limit >= 0) {
+			config.limit = limit;
+		} else {
+			LOGGER.error("limit must be >= 0, using {}", config.limit);
+		}
+		if (windowMillis > 0) {
+			config.windowMillis = windowMillis;
+		} else {
+			LOGGER.error("windowMillis must be > 0, using {}", config.windowMillis);
+		}
+		config.sampleExcess = sampleExcess;
+		return config;
+	}
+}
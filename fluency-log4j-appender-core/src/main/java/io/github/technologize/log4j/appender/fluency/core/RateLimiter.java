@@ -0,0 +1,266 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Limits events per (logger, level, message template) and window.
+ *
+ * Every rule counts events of its window in a count-min sketch, a fixed
+ * array of counters indexed by a few hashes of the event fingerprint, so
+ * counting takes a handful of atomic increments and no allocation. Once a
+ * fingerprint is over the limit the sketch is only read, events beyond the
+ * limit are counted per fingerprint in a small table instead. They are
+ * suppressed, optionally except the 1st, 2nd, 4th, 8th... one so that a
+ * flood stays visible, and reported as "N similar events suppressed"
+ * records when the window ends.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class RateLimiter {
+
+	private static final int SKETCH_DEPTH = 4;
+	private static final int SKETCH_WIDTH = 2048;
+	/* fingerprints reported one by one per window, others are reported together */
+	private static final int SUPPRESSED_SLOTS = 256;
+	private static final int MAX_RESOLVED_LOGGERS = 4096;
+	private static final Object NO_RULE = new Object();
+
+	private final Window[] windows;
+	private final ConcurrentMap<String, Object> windowByLogger = new ConcurrentHashMap<>();
+	private final ReportSink reports;
+	private final List<ScheduledFuture<?>> rolls = new ArrayList<>();
+
+	/**
+	 * @param rules
+	 * @param reports receives suppression summaries
+	 */
+	RateLimiter(final RateLimitConfig[] rules, final ReportSink reports) {
+		this.windows = new Window[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			windows[i] = new Window(rules[i]);
+		}
+		this.reports = reports;
+	}
+
+	/**
+	 * Starts closing windows
+	 */
+	synchronized void start() {
+		if (!rolls.isEmpty()) {
+			return;
+		}
+		for (final Window window : windows) {
+			rolls.add(Housekeeper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					window.roll(reports);
+				}
+			}, window.windowMillis, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Stops closing windows and reports what the open windows suppressed
+	 */
+	synchronized void stop() {
+		for (ScheduledFuture<?> roll : rolls) {
+			roll.cancel(false);
+		}
+		rolls.clear();
+		for (Window window : windows) {
+			window.roll(reports);
+		}
+	}
+
+	/**
+	 * returns whether the event is let through, suppressed events are counted
+	 * @param logEvent
+	 * @return
+	 */
+	boolean tryAcquire(final LogEvent logEvent) {
+		String loggerName = logEvent.getLoggerName();
+		Window window = windowFor(loggerName != null ? loggerName : "");
+		Level level = logEvent.getLevel();
+		if (window == null || !level.isLessSpecificThan(window.level)) {
+			return true;
+		}
+		String format = EventFingerprint.messageFormat(logEvent.getMessage());
+		return window.tryAcquire(EventFingerprint.of(loggerName, level, format), loggerName, level, format);
+	}
+
+	/* rule with the longest logger prefix matching the name, resolved once per logger */
+	private Window windowFor(final String loggerName) {
+		Object resolved = windowByLogger.get(loggerName);
+		if (resolved == null) {
+			resolved = NO_RULE;
+			int matched = -1;
+			for (Window window : windows) {
+				if (window.logger.length() > matched && matches(window.logger, loggerName)) {
+					resolved = window;
+					matched = window.logger.length();
+				}
+			}
+			if (windowByLogger.size() < MAX_RESOLVED_LOGGERS) {
+				windowByLogger.put(loggerName, resolved);
+			}
+		}
+		return resolved != NO_RULE ? (Window) resolved : null;
+	}
+
+	private static boolean matches(final String prefix, final String loggerName) {
+		return prefix.isEmpty() || (loggerName.startsWith(prefix)
+				&& (loggerName.length() == prefix.length() || loggerName.charAt(prefix.length()) == '.'));
+	}
+
+	/**
+	 * Counters of one rule for the current window
+	 */
+	private static final class Window {
+		private final String logger;
+		private final Level level;
+		private final int limit;
+		private final int windowMillis;
+		private final boolean sampleExcess;
+		private final AtomicIntegerArray sketch = new AtomicIntegerArray(SKETCH_DEPTH * SKETCH_WIDTH);
+		private final AtomicLongArray fingerprints = new AtomicLongArray(SUPPRESSED_SLOTS);
+		/* events over the limit per fingerprint, sampled ones included */
+		private final AtomicLongArray excess = new AtomicLongArray(SUPPRESSED_SLOTS);
+		private final AtomicReferenceArray<Suppressed> suppressedEvents = new AtomicReferenceArray<>(SUPPRESSED_SLOTS);
+		private final LongAdder otherSuppressed = new LongAdder();
+
+		private Window(final RateLimitConfig rule) {
+			this.logger = rule.getLogger();
+			this.level = rule.getLevel();
+			this.limit = rule.getLimit();
+			this.windowMillis = rule.getWindowMillis();
+			this.sampleExcess = rule.isSampleExcess();
+		}
+
+		private boolean tryAcquire(final long fingerprint, final String loggerName, final Level eventLevel,
+				final String format) {
+			/* a fingerprint over the limit no longer writes the shared sketch */
+			int estimate = count(fingerprint, false);
+			boolean counted = estimate < limit;
+			if (counted) {
+				estimate = count(fingerprint, true);
+				if (estimate <= limit) {
+					return true;
+				}
+			}
+			int slot = (int) fingerprint & (SUPPRESSED_SLOTS - 1);
+			long owner = fingerprints.get(slot);
+			if (owner == 0 && fingerprints.compareAndSet(slot, 0, fingerprint)) {
+				/* first event of this fingerprint over the limit in the window */
+				suppressedEvents.set(slot, new Suppressed(loggerName, eventLevel, format));
+				owner = fingerprint;
+			}
+			long over;
+			if (owner == fingerprint) {
+				over = excess.incrementAndGet(slot);
+			} else {
+				/* no slot left, the sketch keeps counting */
+				over = (counted ? estimate : count(fingerprint, true)) - limit;
+			}
+			/* not over when the window rolled in between */
+			if (over <= 0 || (sampleExcess && (over & (over - 1)) == 0)) {
+				return true;
+			}
+			if (owner != fingerprint) {
+				otherSuppressed.increment();
+			}
+			return false;
+		}
+
+		/* estimated events of the fingerprint in the window, counting this one when increment is set */
+		private int count(final long fingerprint, final boolean increment) {
+			int hash1 = (int) fingerprint;
+			int hash2 = (int) (fingerprint >>> 32) | 1;
+			int estimate = Integer.MAX_VALUE;
+			for (int row = 0; row < SKETCH_DEPTH; row++) {
+				int index = row * SKETCH_WIDTH + ((hash1 + row * hash2) & (SKETCH_WIDTH - 1));
+				estimate = Math.min(estimate, increment ? sketch.incrementAndGet(index) : sketch.get(index));
+			}
+			return estimate;
+		}
+
+		/* counts racing with the roll may end up in the next window */
+		private void roll(final ReportSink reports) {
+			for (int i = 0; i < sketch.length(); i++) {
+				sketch.set(i, 0);
+			}
+			long other = otherSuppressed.sumThenReset();
+			for (int slot = 0; slot < SUPPRESSED_SLOTS; slot++) {
+				long over = excess.getAndSet(slot, 0);
+				fingerprints.set(slot, 0);
+				/* the 1st, 2nd, 4th... event over the limit was sent */
+				long count = sampleExcess ? over - (64 - Long.numberOfLeadingZeros(over)) : over;
+				Suppressed event = suppressedEvents.getAndSet(slot, null);
+				if (count == 0) {
+					continue;
+				}
+				if (event == null) {
+					other += count;
+					continue;
+				}
+				Map<String, Object> details = new LinkedHashMap<>();
+				details.put("suppressed", count);
+				details.put("suppressedLogger", event.loggerName);
+				details.put("suppressedLevel", event.level.name());
+				details.put("messageFormat", event.format);
+				details.put("windowMillis", windowMillis);
+				reports.report(event.level, count + " similar events suppressed", details);
+			}
+			if (other > 0) {
+				Map<String, Object> details = new LinkedHashMap<>();
+				details.put("suppressed", other);
+				details.put("windowMillis", windowMillis);
+				reports.report(Level.WARN, other + " events suppressed by rate limit", details);
+			}
+		}
+	}
+
+	/**
+	 * What a suppressed fingerprint stands for
+	 */
+	private static final class Suppressed {
+		private final String loggerName;
+		private final Level level;
+		private final String format;
+
+		private Suppressed(final String loggerName, final Level level, final String format) {
+			this.loggerName = loggerName;
+			this.level = level;
+			this.format = format;
+		}
+	}
+}
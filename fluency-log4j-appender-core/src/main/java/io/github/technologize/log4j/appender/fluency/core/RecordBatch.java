@@ -0,0 +1,184 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Encoded records with their event time laid out back to back in one
+ * growable array, so a batch is handed over and copied as a whole
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class RecordBatch {
+
+	private static final StatusLogger LOGGER = StatusLogger.getLogger();
+
+	/* epoch second, nano of second and length in front of every record */
+	private static final int ENTRY_HEADER_LENGTH = 8 + 4 + 4;
+
+	private static final int INITIAL_LEVELS = 16;
+
+	private final int initialCapacity;
+	private byte[] bytes;
+	private int size;
+	private int count;
+	/* level of every record, levels are constants so keeping them is safe */
+	private Level[] levels = new Level[INITIAL_LEVELS];
+	private Level mostSevere;
+
+	/**
+	 * @param initialCapacity
+	 */
+	RecordBatch(final int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+		this.bytes = new byte[initialCapacity];
+	}
+
+	/**
+	 * Appends a record
+	 * @param record
+	 * @param offset
+	 * @param length
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level
+	 */
+	void add(final byte[] record, final int offset, final int length, final long epochSecond,
+			final int nanoOfSecond, final Level level) {
+		ensureCapacity(size + ENTRY_HEADER_LENGTH + length);
+		putLong(bytes, size, epochSecond);
+		putInt(bytes, size + 8, nanoOfSecond);
+		putInt(bytes, size + 12, length);
+		System.arraycopy(record, offset, bytes, size + ENTRY_HEADER_LENGTH, length);
+		size += ENTRY_HEADER_LENGTH + length;
+		if (count == levels.length) {
+			levels = Arrays.copyOf(levels, count << 1);
+		}
+		levels[count++] = level;
+		if (level != null && (mostSevere == null || level.isMoreSpecificThan(mostSevere))) {
+			mostSevere = level;
+		}
+	}
+
+	/**
+	 * Replaces the content with a copy of the other batch
+	 * @param other
+	 */
+	void copyFrom(final RecordBatch other) {
+		size = 0;
+		ensureCapacity(other.size);
+		System.arraycopy(other.bytes, 0, bytes, 0, other.size);
+		size = other.size;
+		if (levels.length < other.count) {
+			levels = new Level[other.levels.length];
+		}
+		System.arraycopy(other.levels, 0, levels, 0, other.count);
+		count = other.count;
+		mostSevere = other.mostSevere;
+	}
+
+	/**
+	 * Emits all records in order, a failing record does not stop the others
+	 * @param sink
+	 */
+	void emitTo(final RecordSink sink) {
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			int length = getInt(bytes, offset + 12);
+			try {
+				sink.emit(getLong(bytes, offset), getInt(bytes, offset + 8), levels[i], bytes,
+						offset + ENTRY_HEADER_LENGTH, length);
+			} catch (IOException e) {
+				LOGGER.error("Error while emitting message: {}", e.getMessage());
+			} catch (RuntimeException e) {
+				LOGGER.error("Error while emitting message", e);
+			}
+			offset += ENTRY_HEADER_LENGTH + length;
+		}
+	}
+
+	/**
+	 * Empties the batch, an array grown beyond maxRetainedCapacity is released
+	 * @param maxRetainedCapacity
+	 */
+	void clear(final int maxRetainedCapacity) {
+		size = 0;
+		count = 0;
+		mostSevere = null;
+		if (bytes.length > maxRetainedCapacity) {
+			bytes = new byte[initialCapacity];
+		}
+	}
+
+	/**
+	 * returns number of records
+	 * @return
+	 */
+	int count() {
+		return count;
+	}
+
+	/**
+	 * returns number of bytes used
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * returns level of the most severe record, null when empty
+	 * @return
+	 */
+	Level mostSevere() {
+		return mostSevere;
+	}
+
+	private void ensureCapacity(final int required) {
+		if (required > bytes.length) {
+			byte[] grown = new byte[Math.max(required, bytes.length << 1)];
+			System.arraycopy(bytes, 0, grown, 0, size);
+			bytes = grown;
+		}
+	}
+
+	private static void putLong(final byte[] out, final int offset, final long value) {
+		putInt(out, offset, (int) (value >>> 32));
+		putInt(out, offset + 4, (int) value);
+	}
+
+	private static void putInt(final byte[] out, final int offset, final int value) {
+		out[offset] = (byte) (value >>> 24);
+		out[offset + 1] = (byte) (value >>> 16);
+		out[offset + 2] = (byte) (value >>> 8);
+		out[offset + 3] = (byte) value;
+	}
+
+	private static long getLong(final byte[] in, final int offset) {
+		return ((long) getInt(in, offset) << 32) | (getInt(in, offset + 4) & 0xffffffffL);
+	}
+
+	private static int getInt(final byte[] in, final int offset) {
+		return ((in[offset] & 0xff) << 24) | ((in[offset + 1] & 0xff) << 16) | ((in[offset + 2] & 0xff) << 8)
+				| (in[offset + 3] & 0xff);
+	}
+}
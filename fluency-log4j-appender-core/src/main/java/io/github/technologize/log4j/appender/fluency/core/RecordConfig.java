@@ -0,0 +1,286 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.util.Assert;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * Settings which control how a log event is turned into a record
+ *
+ * @author Bharat Gadde
+ *
+ */
+@Plugin(name = RecordConfig.PLUGIN_NAME, category = Node.CATEGORY, elementType = RecordConfig.ELEMENT_TYPE, printObject = true)
+public class RecordConfig {
+
+	/**
+	 * RecordConfig plugin name
+	 */
+	public static final String PLUGIN_NAME = "RecordConfig";
+
+	/**
+	 * RecordConfig element type
+	 */
+	public static final String ELEMENT_TYPE = "record";
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final int DEFAULT_LOGGER_NAME_CACHE_SIZE = 4096;
+	private static final int DEFAULT_EXCEPTION_CACHE_SIZE = 1024;
+	private static final int DEFAULT_EXCEPTION_REFRESH_MILLIS = 300000;
+
+	/**
+	 * How records are handed over to fluency
+	 */
+	public enum Encoding {
+		/**
+		 * Record is collected in a {@link java.util.Map} and serialized by fluency
+		 */
+		MAP,
+		/**
+		 * Record is written into a reusable MessagePack buffer and passed as raw bytes
+		 */
+		MESSAGE_PACK
+	}
+
+	/**
+	 * How @timestamp is written
+	 */
+	public enum TimestampFormat {
+		/**
+		 * ISO-8601 string with nanos, same as {@link java.time.format.DateTimeFormatter#ISO_INSTANT}
+		 */
+		ISO_8601,
+		/**
+		 * Fluentd EventTime, MessagePack extension type 0
+		 */
+		EVENT_TIME
+	}
+
+	private Encoding encoding = Encoding.MAP;
+	private int loggerNameCacheSize = DEFAULT_LOGGER_NAME_CACHE_SIZE;
+	private TimestampFormat timestampFormat = TimestampFormat.ISO_8601;
+	private Level locationLevel = Level.ALL;
+	private String[] locationMarkers = new String[0];
+	private boolean includeContextData;
+	private String contextDataKey;
+	private String[] contextDataIncludes = new String[0];
+	private String[] contextDataExcludes = new String[0];
+	private boolean structuredMessages;
+	private boolean structuredExceptions;
+	private int exceptionCacheSize = DEFAULT_EXCEPTION_CACHE_SIZE;
+	private int exceptionRefreshMillis = DEFAULT_EXCEPTION_REFRESH_MILLIS;
+
+	/**
+	 * returns encoding
+	 * @return
+	 */
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * returns max number of abbreviated logger names kept in cache
+	 * @return
+	 */
+	public int getLoggerNameCacheSize() {
+		return loggerNameCacheSize;
+	}
+
+	/**
+	 * returns format of @timestamp
+	 * @return
+	 */
+	public TimestampFormat getTimestampFormat() {
+		return timestampFormat;
+	}
+
+	/**
+	 * returns minimum level for which source location is written
+	 * @return
+	 */
+	public Level getLocationLevel() {
+		return locationLevel;
+	}
+
+	/**
+	 * returns markers for which source location is always written
+	 * @return
+	 */
+	public String[] getLocationMarkers() {
+		return locationMarkers.clone();
+	}
+
+	/**
+	 * returns whether context data (MDC) is written into the record
+	 * @return
+	 */
+	public boolean isIncludeContextData() {
+		return includeContextData;
+	}
+
+	/**
+	 * returns key under which context data is nested, null when written at top level
+	 * @return
+	 */
+	public String getContextDataKey() {
+		return contextDataKey;
+	}
+
+	/**
+	 * returns context data keys to write, all when empty
+	 * @return
+	 */
+	public String[] getContextDataIncludes() {
+		return contextDataIncludes.clone();
+	}
+
+	/**
+	 * returns context data keys never written
+	 * @return
+	 */
+	public String[] getContextDataExcludes() {
+		return contextDataExcludes.clone();
+	}
+
+	/**
+	 * returns whether map and object messages are written as typed values instead of text
+	 * @return
+	 */
+	public boolean isStructuredMessages() {
+		return structuredMessages;
+	}
+
+	/**
+	 * returns whether the event's throwable is written as structured exception field
+	 * @return
+	 */
+	public boolean isStructuredExceptions() {
+		return structuredExceptions;
+	}
+
+	/**
+	 * returns number of stack traces remembered to be referenced by hash, 0 when always written in full
+	 * @return
+	 */
+	public int getExceptionCacheSize() {
+		return exceptionCacheSize;
+	}
+
+	/**
+	 * returns interval after which a remembered stack trace is written in full again
+	 * @return
+	 */
+	public int getExceptionRefreshMillis() {
+		return exceptionRefreshMillis;
+	}
+
+	/**
+	 * returns config with default values
+	 * @return
+	 */
+	public static RecordConfig createDefault() {
+		return new RecordConfig();
+	}
+
+	@Override
+	public String toString() {
+		return "RecordConfig [encoding=" + encoding + ", loggerNameCacheSize=" + loggerNameCacheSize
+				+ ", timestampFormat=" + timestampFormat + ", locationLevel=" + locationLevel + ", locationMarkers="
+				+ Arrays.toString(locationMarkers) + ", includeContextData=" + includeContextData
+				+ ", contextDataKey=" + contextDataKey + ", contextDataIncludes="
+				+ Arrays.toString(contextDataIncludes) + ", contextDataExcludes="
+				+ Arrays.toString(contextDataExcludes) + ", structuredMessages=" + structuredMessages + ", structuredExceptions="
+				+ structuredExceptions + ", exceptionCacheSize=" + exceptionCacheSize + ", exceptionRefreshMillis="
+				+ exceptionRefreshMillis + "]";
+	}
+
+	/**
+	 * Creates record config
+	 * @param encoding
+	 * @param loggerNameCacheSize
+	 * @param timestampFormat
+	 * @param locationLevel
+	 * @param locationMarkers
+	 * @param includeContextData
+	 * @param contextDataKey
+	 * @param contextDataIncludes
+	 * @param contextDataExcludes
+	 * @param structuredMessages
+	 * @param structuredExceptions
+	 * @param exceptionCacheSize
+	 * @param exceptionRefreshMillis
+	 * @return
+	 */
+	@PluginFactory
+	public static RecordConfig createRecordConfig(
+			@PluginAttribute(value = "encoding", defaultString = "MAP") final String encoding,
+			@PluginAttribute(value = "loggerNameCacheSize", defaultInt = DEFAULT_LOGGER_NAME_CACHE_SIZE) final int loggerNameCacheSize,
+			@PluginAttribute(value = "timestampFormat", defaultString = "ISO_8601") final String timestampFormat,
+			@PluginAttribute(value = "locationLevel", defaultString = "ALL") final String locationLevel,
+			@PluginAttribute(value = "locationMarkers") final String locationMarkers,
+			@PluginAttribute(value = "includeContextData") final boolean includeContextData,
+			@PluginAttribute(value = "contextDataKey") final String contextDataKey,
+			@PluginAttribute(value = "contextDataIncludes") final String contextDataIncludes,
+			@PluginAttribute(value = "contextDataExcludes") final String contextDataExcludes,
+			@PluginAttribute(value = "structuredMessages") final boolean structuredMessages,
+			@PluginAttribute(value = "structuredExceptions") final boolean structuredExceptions,
+			@PluginAttribute(value = "exceptionCacheSize", defaultInt = DEFAULT_EXCEPTION_CACHE_SIZE) final int exceptionCacheSize,
+			@PluginAttribute(value = "exceptionRefreshMillis", defaultInt = DEFAULT_EXCEPTION_REFRESH_MILLIS) final int exceptionRefreshMillis) {
+		RecordConfig config = new RecordConfig();
+		config.encoding = ConfigValues.parseEnum(Encoding.class, "encoding", encoding, config.encoding);
+		if (loggerNameCacheSize > 0) {
+			config.loggerNameCacheSize = loggerNameCacheSize;
+		} else {
+			LOGGER.error("loggerNameCacheSize must be > 0, using {}", config.loggerNameCacheSize);
+		}
+		config.timestampFormat = ConfigValues.parseEnum(TimestampFormat.class, "timestampFormat", timestampFormat,
+				config.timestampFormat);
+		config.locationLevel = ConfigValues.parseLevel("locationLevel", locationLevel, config.locationLevel);
+		config.locationMarkers = ConfigValues.splitList(locationMarkers);
+		config.includeContextData = includeContextData;
+		config.contextDataKey = Assert.isNonEmpty(contextDataKey) ? contextDataKey.trim() : null;
+		if (config.contextDataKey != null && KeyTable.RECORD_KEYS.contains(config.contextDataKey)) {
+			LOGGER.error("contextDataKey {} is a key of the record, writing context data at top level",
+					config.contextDataKey);
+			config.contextDataKey = null;
+		}
+		config.contextDataIncludes = ConfigValues.splitList(contextDataIncludes);
+		config.contextDataExcludes = ConfigValues.splitList(contextDataExcludes);
+		config.structuredMessages = structuredMessages;
+		config.structuredExceptions = structuredExceptions;
+		if (exceptionCacheSize >= 0) {
+			config.exceptionCacheSize = exceptionCacheSize;
+		} else {
+			LOGGER.error("exceptionCacheSize must be >= 0, using {}", config.exceptionCacheSize);
+		}
+		if (exceptionRefreshMillis > 0) {
+			config.exceptionRefreshMillis = exceptionRefreshMillis;
+		} else {
+			LOGGER.error("exceptionRefreshMillis must be > 0, using {}", config.exceptionRefreshMillis);
+		}
+		return config;
+	}
+}
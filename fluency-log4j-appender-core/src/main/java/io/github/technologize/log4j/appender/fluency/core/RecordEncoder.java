@@ -0,0 +1,226 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.core.util.Assert;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.util.StringBuilders;
+
+/**
+ * Writes log events as MessagePack maps into a thread local
+ * {@link MessagePackBuffer}, producing the same record as the map based path
+ * without building intermediate objects.
+ *
+ * Follows log4j's garbage-free contract: per thread state is only kept when
+ * {@link Constants#ENABLE_THREADLOCALS} is set, messages and layouts are
+ * encoded straight into the buffer (reusable messages included), and nothing
+ * of the possibly mutable {@link LogEvent} is referenced once
+ * {@link #encode(LogEvent)} returns. Only structured exceptions allocate,
+ * for events carrying a throwable, and structured map or collection payloads
+ * of object messages, whose iterators are allocated.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class RecordEncoder {
+
+	/* Buffers grown beyond this size by huge messages are not kept around */
+	private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+	private final Layout<? extends Serializable> layout;
+	private final FieldProjection[] fieldProjections;
+	private final KeyTable keys;
+	private final LoggerNameCache loggerNames;
+	private final TimestampFormatter timestampFormatter;
+	private final LocationPolicy locationPolicy;
+	private final ContextDataProjection contextData;
+	private final boolean structuredMessages;
+	private final ThrowableProjection throwables;
+
+	private final ThreadLocal<Scratch> scratches = Constants.ENABLE_THREADLOCALS ? new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	} : null;
+
+	/**
+	 * @param layout
+	 * @param fieldsParams
+	 * @param loggerNames
+	 * @param timestampFormatter formatter for ISO-8601 timestamps, null to write EventTime
+	 * @param locationPolicy
+	 * @param contextData context data projection, null when context data is not written
+	 * @param structuredMessages whether structured message payloads are written as typed values
+	 * @param throwables throwable projection, null when throwables are not written
+	 */
+	RecordEncoder(final Layout<? extends Serializable> layout, final Map<String, PatternLayout> fieldsParams,
+			final LoggerNameCache loggerNames, final TimestampFormatter timestampFormatter,
+			final LocationPolicy locationPolicy, final ContextDataProjection contextData,
+			final boolean structuredMessages, final ThrowableProjection throwables) {
+		this.locationPolicy = locationPolicy;
+		this.throwables = throwables;
+		this.structuredMessages = structuredMessages;
+		this.contextData = contextData;
+		this.layout = layout;
+		this.loggerNames = loggerNames;
+		this.timestampFormatter = timestampFormatter;
+		String[] fieldNames = new String[fieldsParams.size()];
+		this.fieldProjections = new FieldProjection[fieldsParams.size()];
+		int index = 0;
+		for (Entry<String, PatternLayout> fieldParam : fieldsParams.entrySet()) {
+			fieldNames[index] = fieldParam.getKey();
+			this.fieldProjections[index] = FieldProjection.compile(fieldParam.getValue().getConversionPattern(),
+					fieldParam.getValue());
+			index++;
+		}
+		/* nested context data is one more entry, flat context data is counted per event */
+		this.keys = new KeyTable(fieldNames, contextData != null && contextData.isNested() ? 1 : 0);
+	}
+
+	/**
+	 * Encodes the event into the calling thread's buffer, the buffer stays
+	 * valid until the same thread encodes another event. Without thread
+	 * locals a new buffer is returned for every event.
+	 * @param logEvent
+	 * @return
+	 */
+	MessagePackBuffer encode(final LogEvent logEvent) {
+		final Scratch scratch = scratches != null ? scratches.get() : new Scratch();
+		final MessagePackBuffer buffer = scratch.buffer;
+		buffer.reset(MAX_RETAINED_CAPACITY);
+
+		final boolean location = locationPolicy.captures(logEvent);
+		final boolean flatContextData = contextData != null && !contextData.isNested();
+		final Throwable thrown = throwables != null ? logEvent.getThrown() : null;
+		/* entries are counted when their number is only known once written */
+		final boolean countEntries = flatContextData || thrown != null;
+		int recordMark = 0;
+		if (countEntries) {
+			recordMark = buffer.beginMap();
+		} else {
+			buffer.writePayload(location ? keys.header : keys.headerWithoutLocation);
+		}
+
+		buffer.writePayload(keys.level);
+		buffer.packString(logEvent.getLevel().name());
+
+		if (location) {
+			writeLocation(logEvent.getSource(), buffer);
+		}
+
+		LoggerNameCache.Entry loggerName = loggerNames.get(logEvent.getLoggerName());
+		buffer.writePayload(keys.logger);
+		buffer.writePayload(loggerName.packedAbbreviated);
+		buffer.writePayload(keys.loggerFull);
+		buffer.writePayload(loggerName.packedFull);
+
+		buffer.writePayload(keys.message);
+		if (!structuredMessages || !StructuredMessages.write(logEvent.getMessage(), buffer)) {
+			int mark = buffer.beginString();
+			layout.encode(logEvent, buffer);
+			buffer.endString(mark);
+		}
+
+		buffer.writePayload(keys.thread);
+		buffer.packString(logEvent.getThreadName());
+
+		for (int i = 0; i < fieldProjections.length; i++) {
+			buffer.writePayload(keys.field(i));
+			fieldProjections[i].write(logEvent, buffer, scratch.text);
+		}
+
+		/*
+		 * Refer: https://www.elastic.co/guide/en/elasticsearch/reference/current/date.html
+		 * Format that supports nanos is strict_date_optional_time_nanos which is same as DateTimeFormatter.ISO_INSTANT
+		 */
+		buffer.writePayload(keys.timestamp);
+		long epochSecond = logEvent.getInstant().getEpochSecond();
+		int nanoOfSecond = logEvent.getInstant().getNanoOfSecond();
+		if (timestampFormatter != null) {
+			timestampFormatter.format(epochSecond, nanoOfSecond, buffer);
+		} else {
+			buffer.packEventTime(epochSecond, nanoOfSecond);
+		}
+
+		int entries = location ? keys.entries : keys.entriesWithoutLocation;
+		if (contextData != null) {
+			int written = contextData.write(logEvent.getContextData(), buffer, scratch.contextSink);
+			if (flatContextData) {
+				entries += written;
+			}
+		}
+
+		if (thrown != null) {
+			buffer.writePayload(keys.exception);
+			buffer.packValue(throwables.toValue(thrown, logEvent.getTimeMillis()));
+			entries++;
+		}
+
+		if (countEntries) {
+			buffer.endMap(recordMark, entries);
+		}
+
+		/* text of a huge field value is not kept around */
+		StringBuilders.trimToMaxSize(scratch.text, Constants.MAX_REUSABLE_MESSAGE_SIZE);
+		return buffer;
+	}
+
+	private void writeLocation(final StackTraceElement logSource, final MessagePackBuffer buffer) {
+		buffer.writePayload(keys.sourceFile);
+		if (Assert.isEmpty(logSource)) {
+			buffer.writePayload(keys.unknown);
+			buffer.writePayload(keys.sourceClass);
+			buffer.writePayload(keys.unknown);
+			buffer.writePayload(keys.sourceMethod);
+			buffer.writePayload(keys.unknown);
+			buffer.writePayload(keys.sourceLine);
+			buffer.packLong(0);
+		} else {
+			packOrUnknown(buffer, logSource.getFileName());
+			buffer.writePayload(keys.sourceClass);
+			packOrUnknown(buffer, logSource.getClassName());
+			buffer.writePayload(keys.sourceMethod);
+			packOrUnknown(buffer, logSource.getMethodName());
+			buffer.writePayload(keys.sourceLine);
+			buffer.packLong(logSource.getLineNumber());
+		}
+	}
+
+	private void packOrUnknown(final MessagePackBuffer buffer, final String value) {
+		if (Assert.isNonEmpty(value)) {
+			buffer.packString(value);
+		} else {
+			buffer.writePayload(keys.unknown);
+		}
+	}
+
+	/**
+	 * Per thread state reused across events
+	 */
+	private static final class Scratch {
+		private final MessagePackBuffer buffer = new MessagePackBuffer();
+		private final StringBuilder text = new StringBuilder(64);
+		private final ContextDataProjection.Sink contextSink = new ContextDataProjection.Sink();
+	}
+}
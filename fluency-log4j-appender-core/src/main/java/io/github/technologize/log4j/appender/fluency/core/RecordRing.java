@@ -0,0 +1,152 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Bounded lock-free ring of encoded records for many producers and one
+ * consumer.
+ *
+ * Slots are {@link RecordBatch}es allocated up front and reused, a slot
+ * holds one record or a whole batch handed over at once. Every slot
+ * carries a sequence number: a producer claims the next position with one
+ * CAS on the tail when the slot's sequence says it is free, copies the
+ * records in and publishes them by advancing the sequence, the consumer
+ * reads published slots in order and hands them back by advancing the
+ * sequence by one lap.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class RecordRing {
+
+	/* initial size of a slot, slots grown beyond the max are shrunk back once consumed */
+	private static final int INITIAL_SLOT_SIZE = 256;
+	private static final int MAX_RETAINED_SLOT_SIZE = 64 * 1024;
+
+	private final int mask;
+	private final RecordBatch[] slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	/* only written by the consumer, volatile so that size() can be read from any thread */
+	private volatile long head;
+
+	/**
+	 * @param capacity power of two
+	 */
+	RecordRing(final int capacity) {
+		this.mask = capacity - 1;
+		this.slots = new RecordBatch[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new RecordBatch(INITIAL_SLOT_SIZE);
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Copies the record into the next free slot
+	 * @param record
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level
+	 * @return false when the ring is full
+	 */
+	boolean offer(final MessagePackBuffer record, final long epochSecond, final int nanoOfSecond,
+			final Level level) {
+		long position = claim();
+		if (position < 0) {
+			return false;
+		}
+		int index = (int) position & mask;
+		slots[index].add(record.array(), 0, record.size(), epochSecond, nanoOfSecond, level);
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Copies all records of the batch into the next free slot
+	 * @param batch
+	 * @return false when the ring is full
+	 */
+	boolean offer(final RecordBatch batch) {
+		long position = claim();
+		if (position < 0) {
+			return false;
+		}
+		int index = (int) position & mask;
+		slots[index].copyFrom(batch);
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	private long claim() {
+		while (true) {
+			long position = tail.get();
+			long available = sequences.get((int) position & mask) - position;
+			if (available == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+			} else if (available < 0) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * returns the oldest published slot, null when empty. Only the consumer
+	 * may call it and it has to {@link #release()} the slot before polling again
+	 * @return
+	 */
+	RecordBatch peek() {
+		long position = head;
+		int index = (int) position & mask;
+		return sequences.get(index) == position + 1 ? slots[index] : null;
+	}
+
+	/**
+	 * Hands the slot returned by {@link #peek()} back to the producers
+	 */
+	void release() {
+		long position = head;
+		int index = (int) position & mask;
+		slots[index].clear(MAX_RETAINED_SLOT_SIZE);
+		sequences.lazySet(index, position + slots.length);
+		head = position + 1;
+	}
+
+	/**
+	 * returns approximate number of slots waiting
+	 * @return
+	 */
+	int size() {
+		long size = tail.get() - head;
+		return size < 0 ? 0 : (int) Math.min(size, slots.length);
+	}
+
+	/**
+	 * returns number of slots
+	 * @return
+	 */
+	int capacity() {
+		return slots.length;
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Receives encoded records on their way to fluency
+ *
+ * @author Bharat Gadde
+ *
+ */
+interface RecordSink {
+
+	/**
+	 * emits one MessagePack encoded record
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level level of the event the record was made of
+	 * @param record
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	void emit(long epochSecond, int nanoOfSecond, Level level, byte[] record, int offset, int length)
+			throws IOException;
+}
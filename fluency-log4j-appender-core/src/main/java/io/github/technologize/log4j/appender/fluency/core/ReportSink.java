@@ -0,0 +1,38 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Receives records the appender writes about itself (summaries of shed,
+ * suppressed or aggregated events)
+ *
+ * @author Bharat Gadde
+ *
+ */
+interface ReportSink {
+
+	/**
+	 * emits a record with the usual keys and the given details
+	 * @param level
+	 * @param message
+	 * @param details extra entries of the record
+	 */
+	void report(Level level, String message, Map<String, Object> details);
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+/**
+ * Optional settings of a {@link FluencyConfig}. Appenders whose configs
+ * return equal manager keys share one fluency, its buffer settings are
+ * used for backpressure and metrics and the wait settings on close.
+ * A plain {@link FluencyConfig} gets a fluency of its own and fluency's
+ * defaults are assumed.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public interface SharedFluencyConfig extends FluencyConfig {
+
+	/**
+	 * returns key of the fluency made by this config, appenders whose
+	 * configs return equal keys share one fluency, so it has to cover
+	 * every setting of {@link #makeFluency()}. The key is never printed
+	 * and may hold secrets.
+	 * @return
+	 */
+	public Object getManagerKey();
+
+	/**
+	 * returns name of the fluency made by this config as shown in status
+	 * logs, must not contain secrets
+	 * @return
+	 */
+	public String getManagerName();
+
+	/**
+	 * returns max size of fluency's buffer in bytes
+	 * @return
+	 */
+	public long getMaxBufferSize();
+
+	/**
+	 * returns whether fluency's buffer chunks are on the JVM heap, false for direct memory
+	 * @return
+	 */
+	public boolean isJvmHeapBufferMode();
+
+	/**
+	 * returns seconds fluency waits for its buffer to be flushed on close
+	 * @return
+	 */
+	public int getWaitUntilBufferFlushed();
+
+	/**
+	 * returns seconds fluency waits for its flusher to terminate on close
+	 * @return
+	 */
+	public int getWaitUntilFlusherTerminated();
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Collects encoded records in striped local batches so that logging threads
+ * touch shared state once per batch instead of once per event.
+ *
+ * A thread always uses the stripe of its id, so records of one thread stay
+ * in order. A batch is handed over when it reaches the record or byte limit
+ * or gets older than the max age; a background sweep hands over batches of
+ * stripes which went idle. A batch takes one slot of the {@link AsyncEmitter}
+ * ring. The sweep runs on the shared {@link Housekeeper} thread and never
+ * waits for a slot, a batch which does not fit stays with its stripe.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class StripedBatcher {
+
+	/* batches start small and grow up to about maxBytes, beyond this size they are not kept around */
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+	private final Stripe[] stripes;
+	private final int mask;
+	private final int maxRecords;
+	private final int maxBytes;
+	private final long maxAgeNanos;
+	private final AsyncEmitter asyncEmitter;
+	private final AppenderMetrics metrics;
+	private ScheduledFuture<?> sweep;
+
+	/**
+	 * @param config
+	 * @param asyncEmitter receives whole batches
+	 * @param metrics records hand-off latency, null for none
+	 */
+	StripedBatcher(final BatchingConfig config, final AsyncEmitter asyncEmitter, final AppenderMetrics metrics) {
+		this.stripes = new Stripe[config.getStripes()];
+		this.mask = stripes.length - 1;
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(Math.min(config.getMaxBytes(), INITIAL_CAPACITY));
+		}
+		this.maxRecords = config.getMaxRecords();
+		this.maxBytes = config.getMaxBytes();
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxAgeMillis());
+		this.asyncEmitter = asyncEmitter;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts the background sweep
+	 */
+	synchronized void start() {
+		if (sweep == null) {
+			long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(maxAgeNanos) / 2);
+			sweep = Housekeeper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					sweepIdle();
+				}
+			}, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the sweep and hands over all batches
+	 */
+	synchronized void stop() {
+		if (sweep != null) {
+			sweep.cancel(false);
+			sweep = null;
+		}
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				handOff(stripe, true);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Adds the record to the calling thread's stripe
+	 * @param record
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param level
+	 */
+	void add(final MessagePackBuffer record, final long epochSecond, final int nanoOfSecond, final Level level) {
+		Stripe stripe = stripes[(int) Thread.currentThread().getId() & mask];
+		stripe.lock.lock();
+		try {
+			RecordBatch batch = stripe.batch;
+			long now = System.nanoTime();
+			if (batch.count() == 0) {
+				stripe.firstNanos = now;
+			}
+			batch.add(record.array(), 0, record.size(), epochSecond, nanoOfSecond, level);
+			if (batch.count() >= maxRecords || batch.size() >= maxBytes || now - stripe.firstNanos >= maxAgeNanos) {
+				handOff(stripe, true);
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	private void sweepIdle() {
+		long now = System.nanoTime();
+		for (Stripe stripe : stripes) {
+			/* a stripe in use is handed over by its owner */
+			if (stripe.batch.count() > 0 && now - stripe.firstNanos >= maxAgeNanos && stripe.lock.tryLock()) {
+				try {
+					/* a full ring leaves the batch to its owner or the next sweep */
+					if (stripe.batch.count() > 0) {
+						handOff(stripe, false);
+					}
+				} finally {
+					stripe.lock.unlock();
+				}
+			}
+		}
+	}
+
+	private void handOff(final Stripe stripe, final boolean mayWait) {
+		RecordBatch batch = stripe.batch;
+		if (batch.count() == 0) {
+			return;
+		}
+		long start = metrics != null ? System.nanoTime() : 0L;
+		if (mayWait) {
+			asyncEmitter.enqueue(batch);
+		} else if (!asyncEmitter.offer(batch)) {
+			return;
+		}
+		if (metrics != null) {
+			metrics.recordHandOff(System.nanoTime() - start);
+		}
+		batch.clear(MAX_RETAINED_CAPACITY);
+	}
+
+	/**
+	 * One batch and its lock, padded against false sharing with neighbours
+	 */
+	private static final class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final RecordBatch batch;
+		private long firstNanos;
+		@SuppressWarnings("unused")
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+		private Stripe(final int initialCapacity) {
+			this.batch = new RecordBatch(initialCapacity);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.logging.log4j.message.MapMessage;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ObjectMessage;
+import org.apache.logging.log4j.message.ReusableObjectMessage;
+import org.apache.logging.log4j.util.TriConsumer;
+
+/**
+ * Packs structured message payloads as typed values instead of rendered
+ * text: the entries of a {@link MapMessage} (which also covers its
+ * {@link org.apache.logging.log4j.message.MultiformatMessage} formats) and
+ * the parameter of an {@link ObjectMessage} when it is a map, collection,
+ * array, number, boolean or string.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class StructuredMessages {
+
+	private static final TriConsumer<String, Object, MessagePackBuffer> PACKER = new TriConsumer<String, Object, MessagePackBuffer>() {
+		@Override
+		public void accept(final String key, final Object value, final MessagePackBuffer buffer) {
+			buffer.packString(key);
+			buffer.packValue(value);
+		}
+	};
+
+	private StructuredMessages() {
+	}
+
+	/**
+	 * Writes the message payload if it is structured
+	 * @param message
+	 * @param buffer
+	 * @return false when nothing was written and the message has to be rendered as text
+	 */
+	static boolean write(final Message message, final MessagePackBuffer buffer) {
+		if (message instanceof MapMessage) {
+			MapMessage<?, ?> mapMessage = (MapMessage<?, ?>) message;
+			buffer.packMapHeader(mapMessage.size());
+			mapMessage.forEach(PACKER, buffer);
+			return true;
+		}
+		Object payload = objectPayload(message);
+		if (isStructured(payload)) {
+			buffer.packValue(payload);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * returns the structured payload to put into a record map, null when the
+	 * message has to be rendered as text
+	 * @param message
+	 * @return
+	 */
+	static Object toValue(final Message message) {
+		if (message instanceof MapMessage) {
+			return ((MapMessage<?, ?>) message).getData();
+		}
+		Object payload = objectPayload(message);
+		return isStructured(payload) ? payload : null;
+	}
+
+	/* getParameters() would copy the payload into a new array for every event */
+	private static Object objectPayload(final Message message) {
+		if (message instanceof ObjectMessage) {
+			return ((ObjectMessage) message).getParameter();
+		}
+		if (message instanceof ReusableObjectMessage) {
+			return ((ReusableObjectMessage) message).getParameter();
+		}
+		return null;
+	}
+
+	private static boolean isStructured(final Object payload) {
+		return payload instanceof Map || payload instanceof Collection || payload instanceof Object[]
+				|| payload instanceof Number || payload instanceof Boolean || payload instanceof CharSequence;
+	}
+}
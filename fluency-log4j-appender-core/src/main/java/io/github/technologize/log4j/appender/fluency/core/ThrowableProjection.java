@@ -0,0 +1,208 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Turns the event's throwable into a structured value: class, message,
+ * frames and cause chain. Frame class names are folded against the frame
+ * before, "~3.connector.CoyoteAdapter" shares the first 3 package segments
+ * with the previous frame's class, and frames a cause has in common with
+ * the throwable it caused are only counted, as printStackTrace does.
+ *
+ * Stack traces are fingerprinted and kept in a small direct mapped cache.
+ * A trace seen again within the refresh interval is only referenced by
+ * its stackHash, with class, message, top frame and the classes and
+ * messages of its causes.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ThrowableProjection {
+
+	/* causes beyond this depth are left out, also guards against cycles */
+	private static final int MAX_CAUSES = 16;
+
+	private final AtomicLongArray hashes;
+	private final AtomicLongArray fullMillis;
+	private final long refreshMillis;
+
+	/**
+	 * @param cacheSize number of traces remembered, 0 to always write full traces
+	 * @param refreshMillis full trace is written again after this interval
+	 */
+	ThrowableProjection(final int cacheSize, final long refreshMillis) {
+		int size = cacheSize > 0 && Integer.highestOneBit(cacheSize) != cacheSize
+				? Integer.highestOneBit(cacheSize) << 1
+				: cacheSize;
+		this.hashes = size > 0 ? new AtomicLongArray(size) : null;
+		this.fullMillis = size > 0 ? new AtomicLongArray(size) : null;
+		this.refreshMillis = refreshMillis;
+	}
+
+	/**
+	 * returns the throwable as map of class, message, stackHash and frames or
+	 * reference to a trace written before
+	 * @param thrown
+	 * @param timeMillis event time, used to refresh full traces
+	 * @return
+	 */
+	Map<String, Object> toValue(final Throwable thrown, final long timeMillis) {
+		List<Throwable> chain = new ArrayList<>(2);
+		Map<Throwable, Boolean> seen = new IdentityHashMap<>();
+		for (Throwable current = thrown; current != null && chain.size() < MAX_CAUSES
+				&& seen.put(current, Boolean.TRUE) == null; current = current.getCause()) {
+			chain.add(current);
+		}
+		StackTraceElement[][] traces = new StackTraceElement[chain.size()][];
+		long hash = 1;
+		for (int i = 0; i < traces.length; i++) {
+			traces[i] = chain.get(i).getStackTrace();
+			hash = EventFingerprint.with(hash, chain.get(i).getClass().getName().hashCode());
+			for (StackTraceElement frame : traces[i]) {
+				hash = EventFingerprint.with(hash, frame.hashCode());
+			}
+		}
+		String stackHash = Long.toHexString(hash);
+		return seenRecently(hash, timeMillis) ? reference(chain, traces, 0, stackHash)
+				: full(chain, traces, 0, stackHash);
+	}
+
+	/* claims the trace for a full write unless it was written within the refresh interval */
+	private boolean seenRecently(final long hash, final long timeMillis) {
+		if (hashes == null) {
+			return false;
+		}
+		int slot = (int) hash & (hashes.length() - 1);
+		if (hashes.get(slot) == hash && timeMillis - fullMillis.get(slot) < refreshMillis) {
+			return true;
+		}
+		fullMillis.set(slot, timeMillis);
+		hashes.set(slot, hash);
+		return false;
+	}
+
+	private static Map<String, Object> full(final List<Throwable> chain, final StackTraceElement[][] traces,
+			final int index, final String stackHash) {
+		Throwable throwable = chain.get(index);
+		Map<String, Object> value = new LinkedHashMap<>();
+		value.put("class", throwable.getClass().getName());
+		putMessage(throwable, value);
+		if (stackHash != null) {
+			value.put("stackHash", stackHash);
+		}
+		StackTraceElement[] trace = traces[index];
+		int common = index > 0 ? commonFrames(trace, traces[index - 1]) : 0;
+		List<String> frames = new ArrayList<>(trace.length - common);
+		StringBuilder text = new StringBuilder(128);
+		String previousClass = null;
+		for (int i = 0; i < trace.length - common; i++) {
+			text.setLength(0);
+			appendFrame(trace[i], previousClass, text);
+			frames.add(text.toString());
+			previousClass = trace[i].getClassName();
+		}
+		value.put("frames", frames);
+		if (common > 0) {
+			value.put("commonFrames", common);
+		}
+		if (index + 1 < chain.size()) {
+			value.put("cause", full(chain, traces, index + 1, null));
+		}
+		return value;
+	}
+
+	private static Map<String, Object> reference(final List<Throwable> chain, final StackTraceElement[][] traces,
+			final int index, final String stackHash) {
+		Throwable throwable = chain.get(index);
+		Map<String, Object> value = new LinkedHashMap<>();
+		value.put("class", throwable.getClass().getName());
+		putMessage(throwable, value);
+		if (stackHash != null) {
+			value.put("stackHash", stackHash);
+			if (traces[index].length > 0) {
+				StringBuilder text = new StringBuilder(128);
+				appendFrame(traces[index][0], null, text);
+				value.put("at", text.toString());
+			}
+		}
+		if (index + 1 < chain.size()) {
+			value.put("cause", reference(chain, traces, index + 1, null));
+		}
+		return value;
+	}
+
+	private static void putMessage(final Throwable throwable, final Map<String, Object> value) {
+		String message = throwable.getMessage();
+		if (message != null) {
+			value.put("message", message);
+		}
+	}
+
+	/* number of frames at the bottom of the trace shared with the enclosing trace */
+	private static int commonFrames(final StackTraceElement[] trace, final StackTraceElement[] enclosing) {
+		int common = 0;
+		for (int i = trace.length - 1, j = enclosing.length - 1; i >= 0 && j >= 0
+				&& trace[i].equals(enclosing[j]); i--, j--) {
+			common++;
+		}
+		return common;
+	}
+
+	private static void appendFrame(final StackTraceElement frame, final String previousClass,
+			final StringBuilder text) {
+		String className = frame.getClassName();
+		int folded = 0;
+		int segments = 0;
+		if (previousClass != null) {
+			/* only package segments are folded, never the class name itself */
+			int packageEnd = Math.min(className.lastIndexOf('.'), previousClass.lastIndexOf('.'));
+			for (int i = 0; i <= packageEnd; i++) {
+				char c = className.charAt(i);
+				if (c != previousClass.charAt(i)) {
+					break;
+				}
+				if (c == '.') {
+					folded = i;
+					segments++;
+				}
+			}
+		}
+		if (segments > 0) {
+			text.append('~').append(segments).append(className, folded, className.length());
+		} else {
+			text.append(className);
+		}
+		text.append('.').append(frame.getMethodName()).append('(');
+		if (frame.isNativeMethod()) {
+			text.append("Native Method");
+		} else if (frame.getFileName() == null) {
+			text.append("Unknown Source");
+		} else {
+			text.append(frame.getFileName());
+			if (frame.getLineNumber() >= 0) {
+				text.append(':').append(frame.getLineNumber());
+			}
+		}
+		text.append(')');
+	}
+}
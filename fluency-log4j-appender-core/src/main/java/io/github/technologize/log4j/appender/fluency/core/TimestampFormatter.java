@@ -0,0 +1,163 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats timestamps exactly like {@link DateTimeFormatter#ISO_INSTANT}:
+ * {@code yyyy-MM-ddTHH:mm:ss} followed by 3, 6 or 9 fraction digits (none
+ * when the nanos are zero) and {@code Z}.
+ *
+ * The date and time up to the seconds is computed once per second and
+ * cached, so formatting an event only writes the fraction digits.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class TimestampFormatter {
+
+	private static final int PREFIX_LENGTH = 19;
+	private static final int MAX_LENGTH = PREFIX_LENGTH + 11;
+
+	/* years outside of 0000-9999 are rare enough to go through the slow path */
+	private static final long MIN_FAST_SECOND = LocalDateTime.of(0, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+	private static final long MAX_FAST_SECOND = LocalDateTime.of(9999, 12, 31, 23, 59, 59).toEpochSecond(ZoneOffset.UTC);
+
+	private volatile CachedSecond cached;
+
+	/**
+	 * writes the timestamp as a MessagePack string
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @param buffer
+	 */
+	void format(final long epochSecond, final int nanoOfSecond, final MessagePackBuffer buffer) {
+		if (epochSecond < MIN_FAST_SECOND || epochSecond > MAX_FAST_SECOND) {
+			buffer.packString(slowFormat(epochSecond, nanoOfSecond));
+			return;
+		}
+		final byte[] prefix = prefix(epochSecond);
+		final int fractionDigits = fractionDigits(nanoOfSecond);
+		final int length = PREFIX_LENGTH + (fractionDigits > 0 ? fractionDigits + 1 : 0) + 1;
+		buffer.packStringHeader(length);
+		final int start = buffer.size();
+		buffer.position(start + length);
+		final byte[] out = buffer.array();
+		System.arraycopy(prefix, 0, out, start, PREFIX_LENGTH);
+		writeFraction(out, start + PREFIX_LENGTH, nanoOfSecond, fractionDigits);
+		out[start + length - 1] = 'Z';
+	}
+
+	/**
+	 * returns the timestamp as string
+	 * @param epochSecond
+	 * @param nanoOfSecond
+	 * @return
+	 */
+	String format(final long epochSecond, final int nanoOfSecond) {
+		if (epochSecond < MIN_FAST_SECOND || epochSecond > MAX_FAST_SECOND) {
+			return slowFormat(epochSecond, nanoOfSecond);
+		}
+		final byte[] out = new byte[MAX_LENGTH];
+		System.arraycopy(prefix(epochSecond), 0, out, 0, PREFIX_LENGTH);
+		final int fractionDigits = fractionDigits(nanoOfSecond);
+		final int length = PREFIX_LENGTH + (fractionDigits > 0 ? fractionDigits + 1 : 0) + 1;
+		writeFraction(out, PREFIX_LENGTH, nanoOfSecond, fractionDigits);
+		out[length - 1] = 'Z';
+		return new String(out, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	private byte[] prefix(final long epochSecond) {
+		CachedSecond current = cached;
+		if (current == null || current.epochSecond != epochSecond) {
+			current = new CachedSecond(epochSecond);
+			cached = current;
+		}
+		return current.prefix;
+	}
+
+	private static int fractionDigits(final int nanoOfSecond) {
+		if (nanoOfSecond == 0) {
+			return 0;
+		}
+		if (nanoOfSecond % 1000000 == 0) {
+			return 3;
+		}
+		if (nanoOfSecond % 1000 == 0) {
+			return 6;
+		}
+		return 9;
+	}
+
+	private static void writeFraction(final byte[] out, final int offset, final int nanoOfSecond,
+			final int fractionDigits) {
+		if (fractionDigits == 0) {
+			return;
+		}
+		out[offset] = '.';
+		int value = nanoOfSecond;
+		for (int i = 9; i > fractionDigits; i--) {
+			value /= 10;
+		}
+		for (int i = offset + fractionDigits; i > offset; i--) {
+			out[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private static String slowFormat(final long epochSecond, final int nanoOfSecond) {
+		return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(epochSecond, nanoOfSecond));
+	}
+
+	/**
+	 * Formatted {@code yyyy-MM-ddTHH:mm:ss} of one second
+	 */
+	private static final class CachedSecond {
+		private final long epochSecond;
+		private final byte[] prefix;
+
+		private CachedSecond(final long epochSecond) {
+			this.epochSecond = epochSecond;
+			LocalDateTime dateTime = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+			byte[] bytes = new byte[PREFIX_LENGTH];
+			writeDigits(bytes, 0, dateTime.getYear(), 4);
+			bytes[4] = '-';
+			writeDigits(bytes, 5, dateTime.getMonthValue(), 2);
+			bytes[7] = '-';
+			writeDigits(bytes, 8, dateTime.getDayOfMonth(), 2);
+			bytes[10] = 'T';
+			writeDigits(bytes, 11, dateTime.getHour(), 2);
+			bytes[13] = ':';
+			writeDigits(bytes, 14, dateTime.getMinute(), 2);
+			bytes[16] = ':';
+			writeDigits(bytes, 17, dateTime.getSecond(), 2);
+			this.prefix = bytes;
+		}
+
+		private static void writeDigits(final byte[] out, final int offset, final int value, final int digits) {
+			int remaining = value;
+			for (int i = offset + digits - 1; i >= offset; i--) {
+				out[i] = (byte) ('0' + remaining % 10);
+				remaining /= 10;
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluency.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ObjectMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.message.StringMapMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * MESSAGE_PACK encoding of events without throwables must not allocate
+ *
+ * @author Bharat Gadde
+ *
+ */
+public class RecordEncoderTest {
+
+	private static final int WARMUP_ENCODES = 20000;
+	private static final int ENCODES = 10000;
+
+	@Test
+	public void textMessage() {
+		/* below log4j's reusable message size, longer text is reallocated by the layout */
+		char[] text = new char[256];
+		Arrays.fill(text, 'x');
+		assertNoAllocation(event(new SimpleMessage(new String(text))));
+	}
+
+	@Test
+	public void objectMessage() {
+		assertNoAllocation(event(new ObjectMessage("structured payload")));
+	}
+
+	@Test
+	public void mapMessage() {
+		StringMapMessage message = new StringMapMessage();
+		message.with("user", "bharat").with("action", "login");
+		assertNoAllocation(event(message));
+	}
+
+	private static void assertNoAllocation(final LogEvent logEvent) {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue("per thread allocation is not measured by this JVM", threads instanceof ThreadMXBean
+				&& ((ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+		assumeTrue("encoding reuses buffers only with thread locals", Constants.ENABLE_THREADLOCALS);
+		ThreadMXBean allocations = (ThreadMXBean) threads;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		RecordEncoder encoder = encoder();
+		for (int i = 0; i < WARMUP_ENCODES; i++) {
+			encoder.encode(logEvent);
+		}
+		/* reading the counter may allocate itself */
+		long start = allocations.getThreadAllocatedBytes(threadId);
+		long overhead = allocations.getThreadAllocatedBytes(threadId) - start;
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ENCODES; i++) {
+			encoder.encode(logEvent);
+		}
+		long allocated = allocations.getThreadAllocatedBytes(threadId) - before - overhead;
+		assertEquals("bytes allocated by " + ENCODES + " encodes", 0, allocated);
+	}
+
+	/* the encoder of an appender with fields and flat context data */
+	private static RecordEncoder encoder() {
+		Map<String, PatternLayout> fields = new LinkedHashMap<>();
+		fields.put("app", PatternLayout.newBuilder().withPattern("static value").build());
+		fields.put("user", PatternLayout.newBuilder().withPattern("%X{user}").build());
+		fields.put("marker", PatternLayout.newBuilder().withPattern("%marker").build());
+		return new RecordEncoder(PatternLayout.newBuilder().withPattern("%m").build(), fields,
+				new LoggerNameCache(1024), new TimestampFormatter(), new LocationPolicy(Level.OFF, new String[0]),
+				new ContextDataProjection(null, new String[0], new String[0], fields.keySet()), true, null);
+	}
+
+	private static LogEvent event(final Message message) {
+		SortedArrayStringMap contextData = new SortedArrayStringMap();
+		for (int i = 0; i < 8; i++) {
+			contextData.putValue("key" + i, "value" + i);
+		}
+		contextData.putValue("user", "bharat");
+		contextData.freeze();
+		return Log4jLogEvent.newBuilder()
+				.setLoggerName("io.github.technologize.log4j.appender.fluency.core.RecordEncoderTest")
+				.setLoggerFqcn(RecordEncoderTest.class.getName())
+				.setLevel(Level.INFO)
+				.setMessage(message)
+				.setContextData(contextData)
+				.setThreadName("test")
+				.setTimeMillis(System.currentTimeMillis())
+				.build();
+	}
+}
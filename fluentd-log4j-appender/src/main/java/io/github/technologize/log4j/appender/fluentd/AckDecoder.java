@@ -0,0 +1,109 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes fluentd's ack responses, MessagePack maps like {"ack": chunk id},
+ * from a buffer that may hold a partial response
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class AckDecoder {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String ACK = "ack";
+	/* marks a value not yet complete in the buffer */
+	private static final int INCOMPLETE = -1;
+
+	private AckDecoder() {
+	}
+
+	/**
+	 * Decodes the next response, the buffer's position moves past it
+	 * @param buffer buffer in read mode
+	 * @return chunk id of the ack, null when the response is not complete yet (position unchanged)
+	 * @throws IOException when the bytes are no ack response
+	 */
+	static String next(final ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		int entries = mapHeader(buffer);
+		String ack = null;
+		for (int i = 0; i < entries; i++) {
+			String key = string(buffer);
+			String value = key != null ? string(buffer) : null;
+			if (value == null) {
+				entries = INCOMPLETE;
+				break;
+			}
+			if (ACK.equals(key)) {
+				ack = value;
+			}
+		}
+		if (entries == INCOMPLETE) {
+			((Buffer) buffer).position(start);
+			return null;
+		}
+		if (ack == null) {
+			throw new IOException("Response without ack");
+		}
+		return ack;
+	}
+
+	private static int mapHeader(final ByteBuffer buffer) throws IOException {
+		if (!buffer.hasRemaining()) {
+			return INCOMPLETE;
+		}
+		int type = buffer.get() & 0xff;
+		if ((type & 0xf0) == 0x80) {
+			return type & 0x0f;
+		}
+		if (type == 0xde) {
+			return buffer.remaining() >= 2 ? buffer.getShort() & 0xffff : INCOMPLETE;
+		}
+		throw new IOException("Unexpected response type " + Integer.toHexString(type));
+	}
+
+	private static String string(final ByteBuffer buffer) throws IOException {
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		int type = buffer.get() & 0xff;
+		int length;
+		if ((type & 0xe0) == 0xa0) {
+			length = type & 0x1f;
+		} else if (type == 0xd9 && buffer.remaining() >= 1) {
+			length = buffer.get() & 0xff;
+		} else if (type == 0xda && buffer.remaining() >= 2) {
+			length = buffer.getShort() & 0xffff;
+		} else if (type == 0xd9 || type == 0xda) {
+			return null;
+		} else {
+			throw new IOException("Unexpected response value type " + Integer.toHexString(type));
+		}
+		if (buffer.remaining() < length) {
+			return null;
+		}
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+		((Buffer) buffer).position(buffer.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+import org.komamitsu.fluency.ingester.sender.Sender;
+
+import io.github.technologize.log4j.appender.fluentd.FluentdConfig.LoadBalancing;
+import io.github.technologize.log4j.appender.fluentd.FluentdConfig.Transport;
+
+/**
+ * Spreads chunks over parallel connections to all servers, unlike fluency's
+ * sender which sends to one server and keeps the others as standby (still
+ * available as {@link LoadBalancing#FAILOVER}, for pipelined acks alone).
+ * Connections out of rotation (failed or slow, see {@link ForwardConnection})
+ * are skipped, a failed chunk is retried on another connection up to
+ * senderMaxRetryCount times. Connections are blocking sockets with threads
+ * of their own, or non-blocking channels sharing one {@link ForwardSelector},
+ * which unix domain sockets always are.
+ *
+ * The number of chunks queued or in flight is bounded, a full sender blocks
+ * fluency's flusher and so fills fluency's buffer.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class BalancingSender implements Sender {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/* points per server on the hash ring of TAG_HASH */
+	private static final int VIRTUAL_NODES = 64;
+
+	private final LoadBalancing loadBalancing;
+	private final ForwardConnection[] connections;
+	private final ForwardSelector selector;
+	private final int connectionsPerServer;
+	private final long[] ring;
+	private final Semaphore permits;
+	private final int maxChunks;
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final int connectionTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final boolean ackResponseMode;
+	private final int maxInflightChunks;
+	private final boolean sslEnabled;
+	private final int maxRetryCount;
+	private final int baseRetryIntervalMillis;
+	private final int maxRetryIntervalMillis;
+	private final long slowServerNanos;
+	private final int closeTimeoutSeconds;
+
+	private volatile boolean closed;
+
+	/**
+	 * Connects to all servers
+	 * @param servers
+	 * @param config
+	 */
+	BalancingSender(final List<SocketAddress> servers, final FluentdConfig config) {
+		this.loadBalancing = config.getLoadBalancing() != null ? config.getLoadBalancing() : LoadBalancing.FAILOVER;
+		this.connectionsPerServer = config.getConnectionsPerServer();
+		this.connectionTimeoutMillis = config.getConnectionTimeoutMillis();
+		this.readTimeoutMillis = config.getReadTimeoutMillis();
+		this.ackResponseMode = config.isAckResponseMode();
+		this.maxInflightChunks = config.getMaxInflightChunks();
+		this.sslEnabled = config.isSslEnabled();
+		this.maxRetryCount = config.getSenderMaxRetryCount();
+		this.baseRetryIntervalMillis = config.getSenderBaseRetryIntervalMillis();
+		this.maxRetryIntervalMillis = config.getSenderMaxRetryIntervalMillis();
+		this.slowServerNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowServerMillis());
+		this.closeTimeoutSeconds = config.getWaitUntilBufferFlushed();
+
+		boolean unixDomainSockets = false;
+		for (SocketAddress server : servers) {
+			unixDomainSockets |= !(server instanceof InetSocketAddress);
+		}
+		this.selector = config.getTransport() == Transport.NIO || unixDomainSockets
+				? openSelector(unixDomainSockets)
+				: null;
+		this.connections = new ForwardConnection[servers.size() * connectionsPerServer];
+		for (int server = 0; server < servers.size(); server++) {
+			SocketAddress address = servers.get(server);
+			for (int connection = 0; connection < connectionsPerServer; connection++) {
+				/* unix domain sockets are channels only */
+				connections[server * connectionsPerServer + connection] = selector != null
+						&& (config.getTransport() == Transport.NIO || !(address instanceof InetSocketAddress))
+						? new ChannelConnection(this, address, server, connection, selector)
+						: new ServerConnection(this, address, server, connection);
+			}
+		}
+		this.ring = hashRing(servers);
+		/* the chunks in flight and one waiting per connection */
+		this.maxChunks = connections.length * (maxInflightChunks + 1);
+		this.permits = new Semaphore(maxChunks);
+		for (ForwardConnection connection : connections) {
+			connection.start();
+		}
+		if (selector != null) {
+			selector.start();
+		}
+	}
+
+	private static ForwardSelector openSelector(final boolean required) {
+		try {
+			return new ForwardSelector();
+		} catch (IOException e) {
+			if (required) {
+				throw new IllegalStateException("Opening a selector for unix domain sockets failed", e);
+			}
+			LOGGER.error("Opening a selector failed, using blocking sockets: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Queues the chunk on a connection, waits up to readTimeoutMillis when
+	 * too many chunks are outstanding
+	 * @param chunk
+	 * @throws IOException when the sender is closed or no connection took the chunk in time
+	 */
+	void send(final ForwardChunk chunk) throws IOException {
+		if (closed) {
+			throw new IOException("Sender is closed");
+		}
+		try {
+			if (!permits.tryAcquire(readTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("No fluentd server took the chunk within " + readTimeoutMillis + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a fluentd server");
+		}
+		select(chunk.tag, null).enqueue(chunk);
+	}
+
+	/**
+	 * Called by a connection once the chunk is sent (and acked)
+	 * @param chunk
+	 */
+	void completed(final ForwardChunk chunk) {
+		permits.release();
+	}
+
+	/**
+	 * Called by a connection which failed to send the chunk
+	 * @param chunk
+	 * @param failed
+	 */
+	void retry(final ForwardChunk chunk, final ForwardConnection failed) {
+		if (++chunk.attempts > maxRetryCount) {
+			LOGGER.error("Chunk of tag {} dropped after {} failed attempts", chunk.tag, chunk.attempts);
+			permits.release();
+			return;
+		}
+		reroute(chunk, failed);
+	}
+
+	/**
+	 * Moves a chunk of a connection going out of rotation to another connection
+	 * @param chunk
+	 * @param from
+	 */
+	void reroute(final ForwardChunk chunk, final ForwardConnection from) {
+		select(chunk.tag, from).requeue(chunk);
+	}
+
+	/**
+	 * returns whether a connection other than the given one is in rotation
+	 * @param connection
+	 * @return
+	 */
+	boolean hasOtherAvailable(final ForwardConnection connection) {
+		for (ForwardConnection other : connections) {
+			if (other != connection && other.isAvailable()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* prefers connections in rotation other than excluded, then the one coming back first */
+	private ForwardConnection select(final String tag, final ForwardConnection excluded) {
+		ForwardConnection selected = select(tag, excluded, true);
+		if (selected == null && excluded != null) {
+			selected = select(tag, null, true);
+		}
+		if (selected == null) {
+			selected = select(tag, null, false);
+		}
+		return selected;
+	}
+
+	private ForwardConnection select(final String tag, final ForwardConnection excluded, final boolean available) {
+		switch (loadBalancing) {
+		case TAG_HASH:
+			return byTag(tag, excluded, available);
+		case LEAST_OUTSTANDING:
+			return leastOutstanding(0, connections.length, excluded, available);
+		case FAILOVER:
+			return failover(excluded, available);
+		default:
+			return roundRobin(excluded, available);
+		}
+	}
+
+	private ForwardConnection roundRobin(final ForwardConnection excluded, final boolean available) {
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < connections.length; i++) {
+			ForwardConnection connection = connections[(start + i) % connections.length];
+			if (connection != excluded && (!available || connection.isAvailable())) {
+				return connection;
+			}
+		}
+		return null;
+	}
+
+	private ForwardConnection leastOutstanding(final int from, final int count, final ForwardConnection excluded,
+			final boolean available) {
+		ForwardConnection selected = null;
+		/* ties go to a rotating connection instead of always the first */
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			ForwardConnection connection = connections[from + (start + i) % count];
+			if (connection == excluded) {
+				continue;
+			}
+			if (available) {
+				if (connection.isAvailable() && (selected == null
+						|| connection.getOutstandingBytes() < selected.getOutstandingBytes())) {
+					selected = connection;
+				}
+			} else if (selected == null || connection.getOpenUntilNanos() - selected.getOpenUntilNanos() < 0) {
+				selected = connection;
+			}
+		}
+		return selected;
+	}
+
+	/* first server in configured order with a connection to take the chunk */
+	private ForwardConnection failover(final ForwardConnection excluded, final boolean available) {
+		for (int server = 0; server < connections.length / connectionsPerServer; server++) {
+			ForwardConnection selected = leastOutstanding(server * connectionsPerServer, connectionsPerServer,
+					excluded, available);
+			if (selected != null) {
+				return selected;
+			}
+		}
+		return null;
+	}
+
+	/* consistent hashing, tags of a server out of rotation move to the next server on the ring only */
+	private ForwardConnection byTag(final String tag, final ForwardConnection excluded, final boolean available) {
+		int index = Arrays.binarySearch(ring, (long) mix(tag.hashCode()) << 32);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		for (int i = 0; i < ring.length; i++) {
+			int server = (int) ring[(index + i) % ring.length];
+			ForwardConnection selected = leastOutstanding(server * connectionsPerServer, connectionsPerServer,
+					excluded, available);
+			if (selected != null) {
+				return selected;
+			}
+		}
+		return null;
+	}
+
+	/* ring points sorted by hash, the low 32 bits hold the server index */
+	private static long[] hashRing(final List<SocketAddress> servers) {
+		long[] ring = new long[servers.size() * VIRTUAL_NODES];
+		for (int server = 0; server < servers.size(); server++) {
+			for (int node = 0; node < VIRTUAL_NODES; node++) {
+				int hash = mix((servers.get(server).toString() + "#" + node).hashCode());
+				ring[server * VIRTUAL_NODES + node] = (long) hash << 32 | server;
+			}
+		}
+		Arrays.sort(ring);
+		return ring;
+	}
+
+	/* murmur3 finalizer */
+	private static int mix(final int value) {
+		int hash = value;
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	int getConnectionTimeoutMillis() {
+		return connectionTimeoutMillis;
+	}
+
+	int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	boolean isAckResponseMode() {
+		return ackResponseMode;
+	}
+
+	int getMaxInflightChunks() {
+		return maxInflightChunks;
+	}
+
+	boolean isSslEnabled() {
+		return sslEnabled;
+	}
+
+	int getBaseRetryIntervalMillis() {
+		return baseRetryIntervalMillis;
+	}
+
+	int getMaxRetryIntervalMillis() {
+		return maxRetryIntervalMillis;
+	}
+
+	long getSlowServerNanos() {
+		return slowServerNanos;
+	}
+
+	/**
+	 * Waits up to waitUntilBufferFlushed seconds for outstanding chunks and
+	 * closes all connections
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		boolean sent = false;
+		try {
+			sent = permits.tryAcquire(maxChunks, closeTimeoutSeconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ForwardConnection connection : connections) {
+			connection.stop();
+		}
+		if (selector != null) {
+			selector.stop();
+		}
+		if (!sent) {
+			LOGGER.warn("{} chunks not sent to fluentd when closed", maxChunks - permits.availablePermits());
+		}
+	}
+}
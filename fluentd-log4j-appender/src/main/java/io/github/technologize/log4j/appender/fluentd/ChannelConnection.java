@@ -0,0 +1,286 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ForwardConnection} over a non-blocking channel, driven by the one
+ * thread of a {@link ForwardSelector}. Chunks are written with gathering
+ * writes of their header, entries and option without joining them into one
+ * array (the entries are a copy of fluency's buffer, see
+ * {@link ForwardIngester}), connects and acks are handled as
+ * their channel gets ready. All state but the queue is owned by the
+ * selector thread. The channel is TCP or a unix domain socket.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ChannelConnection extends ForwardConnection {
+
+	private static final int ACK_BUFFER_SIZE = 4096;
+
+	private final ForwardSelector selector;
+	private final ArrayDeque<ForwardChunk> inflight = new ArrayDeque<>();
+	/* flipped and cleared through Buffer, which links on Java 7 and 8 when built with a newer JDK */
+	private final ByteBuffer acks = ByteBuffer.allocate(ACK_BUFFER_SIZE);
+	private final long connectionTimeoutNanos;
+	private final long readTimeoutNanos;
+
+	private volatile boolean running = true;
+
+	private SocketChannel channel;
+	private SelectionKey key;
+	private boolean connected;
+	private long connectDeadlineNanos;
+	private ForwardChunk writing;
+	private ByteBuffer[] writeBuffers;
+
+	/**
+	 * @param sender
+	 * @param address
+	 * @param server index of the server in the configured servers
+	 * @param connection index of the connection to the server
+	 * @param selector
+	 */
+	ChannelConnection(final BalancingSender sender, final SocketAddress address, final int server,
+			final int connection, final ForwardSelector selector) {
+		super(sender, address, server, connection);
+		this.selector = selector;
+		this.connectionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sender.getConnectionTimeoutMillis());
+		this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sender.getReadTimeoutMillis());
+		selector.add(this);
+	}
+
+	@Override
+	void start() {
+		/* driven by the selector */
+	}
+
+	@Override
+	void stop() {
+		running = false;
+	}
+
+	@Override
+	protected void wakeUp() {
+		selector.wakeUp();
+	}
+
+	/**
+	 * Connects, checks timeouts and starts writing queued chunks, called by
+	 * the selector thread on every round
+	 * @param now
+	 */
+	void process(final long now) {
+		if (!running) {
+			return;
+		}
+		try {
+			if (channel == null) {
+				if (isAvailable() ? !queue.isEmpty() : isProbeDue(now)) {
+					connect(now);
+				}
+				return;
+			}
+			if (!connected) {
+				if (now - connectDeadlineNanos > 0) {
+					throw new SocketTimeoutException("Connect timed out");
+				}
+				return;
+			}
+			if (isProbeDue(now)) {
+				/* a slow server still connected */
+				backInRotation();
+			}
+			if (!inflight.isEmpty() && now - inflight.peekFirst().sentNanos > readTimeoutNanos) {
+				throw new SocketTimeoutException("No ack within " + sender.getReadTimeoutMillis() + " ms");
+			}
+			/* a server no longer reading fills the socket buffer and would hold the chunk forever */
+			if (writing != null && now - writing.sentNanos > readTimeoutNanos) {
+				throw new SocketTimeoutException("Chunk not written within " + sender.getReadTimeoutMillis() + " ms");
+			}
+			write(now);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Handles readiness of the channel, called by the selector thread
+	 * @param readyKey
+	 */
+	void ready(final SelectionKey readyKey) {
+		if (readyKey != key) {
+			return;
+		}
+		try {
+			if (readyKey.isConnectable()) {
+				channel.finishConnect();
+				connected();
+			}
+			if (connected && readyKey.isReadable()) {
+				read();
+			}
+			if (connected && writing != null && readyKey.isWritable()) {
+				write(System.nanoTime());
+			}
+		} catch (IOException | CancelledKeyException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Closes the channel, called by the selector thread
+	 */
+	void close() {
+		if (key != null) {
+			key.cancel();
+			key = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.debug("Closing connection to fluentd server {} failed: {}", address, e.getMessage());
+			}
+			channel = null;
+		}
+		connected = false;
+	}
+
+	private void connect(final long now) throws IOException {
+		SocketChannel newChannel = UnixDomainSockets.open(address);
+		try {
+			newChannel.configureBlocking(false);
+			if (address instanceof InetSocketAddress) {
+				newChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			}
+			boolean done = newChannel.connect(address);
+			key = newChannel.register(selector.selector(), done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+					this);
+			channel = newChannel;
+			connectDeadlineNanos = now + connectionTimeoutNanos;
+			((Buffer) acks).clear();
+			if (done) {
+				connected();
+			}
+		} catch (IOException e) {
+			newChannel.close();
+			throw e;
+		}
+	}
+
+	private void connected() {
+		connected = true;
+		key.interestOps(SelectionKey.OP_READ);
+		if (!isAvailable()) {
+			backInRotation();
+		}
+	}
+
+	/* writes chunks until the socket's buffer is full or the pipeline is */
+	private void write(final long now) throws IOException {
+		while (true) {
+			if (writing == null) {
+				if (!isAvailable() || sender.isAckResponseMode() && inflight.size() >= sender.getMaxInflightChunks()) {
+					break;
+				}
+				ForwardChunk chunk = queue.pollFirst();
+				if (chunk == null) {
+					break;
+				}
+				chunk.sentNanos = now;
+				writing = chunk;
+				writeBuffers = chunk.buffers();
+			}
+			channel.write(writeBuffers);
+			if (writeBuffers[writeBuffers.length - 1].hasRemaining()) {
+				break;
+			}
+			ForwardChunk chunk = writing;
+			writing = null;
+			writeBuffers = null;
+			if (sender.isAckResponseMode()) {
+				inflight.addLast(chunk);
+			} else {
+				completed(chunk);
+			}
+		}
+		key.interestOps(writing != null ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private void read() throws IOException {
+		if (channel.read(acks) < 0) {
+			throw new EOFException("Connection closed by fluentd server");
+		}
+		if (!sender.isAckResponseMode()) {
+			/* nothing is expected without acks, the read only notices a closed connection */
+			((Buffer) acks).clear();
+			return;
+		}
+		((Buffer) acks).flip();
+		String id;
+		while ((id = AckDecoder.next(acks)) != null) {
+			acked(id);
+		}
+		acks.compact();
+		if (!acks.hasRemaining()) {
+			throw new IOException("Response of fluentd server too large");
+		}
+	}
+
+	private void acked(final String id) throws IOException {
+		/* fluentd acks in order, the chunk is at the head unless the server skipped one */
+		for (Iterator<ForwardChunk> chunks = inflight.iterator(); chunks.hasNext();) {
+			ForwardChunk chunk = chunks.next();
+			if (chunk.id.equals(id)) {
+				chunks.remove();
+				completed(chunk);
+				return;
+			}
+		}
+		throw new IOException("Unexpected ack " + id);
+	}
+
+	/* unacked chunks are retried in the order they were sent, then the one partly written */
+	private void fail(final Exception e) {
+		List<ForwardChunk> retries = new ArrayList<>(inflight);
+		inflight.clear();
+		if (writing != null) {
+			retries.add(writing);
+			writing = null;
+			writeBuffers = null;
+		}
+		close();
+		failed(e, retries);
+	}
+}
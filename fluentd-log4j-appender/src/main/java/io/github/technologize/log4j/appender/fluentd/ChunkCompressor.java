@@ -0,0 +1,162 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import io.github.technologize.log4j.appender.fluentd.FluentdConfig.Compression;
+
+/**
+ * Compresses the entries of a chunk for CompressedPackedForward messages.
+ * zstd is used through zstd-jni when it is on the class path, it is no
+ * dependency of this appender.
+ *
+ * @author Bharat Gadde
+ *
+ */
+abstract class ChunkCompressor {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	private static final String ZSTD_CLASS = "com.github.luben.zstd.Zstd";
+	private static final int ZSTD_DEFAULT_LEVEL = 3;
+	private static final int ZSTD_MAX_LEVEL = 22;
+
+	/**
+	 * returns value of the compressed option
+	 * @return
+	 */
+	abstract String getName();
+
+	/**
+	 * Compresses the entries
+	 * @param entries
+	 * @return
+	 * @throws IOException
+	 */
+	abstract byte[] compress(byte[] entries) throws IOException;
+
+	/**
+	 * Creates the compressor, falls back to gzip when zstd-jni is missing
+	 * @param compression
+	 * @param level -1 for the default level of the compression
+	 * @return null for no compression
+	 */
+	static ChunkCompressor create(final Compression compression, final int level) {
+		switch (compression) {
+		case GZIP:
+			return new Gzip(gzipLevel(level));
+		case ZSTD:
+			Method compress = zstd();
+			if (compress != null) {
+				return new Zstd(compress, zstdLevel(level));
+			}
+			LOGGER.error("compression ZSTD needs com.github.luben:zstd-jni on the class path, using GZIP");
+			return new Gzip(Deflater.DEFAULT_COMPRESSION);
+		default:
+			return null;
+		}
+	}
+
+	private static int gzipLevel(final int level) {
+		if (level == -1 || level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) {
+			return level;
+		}
+		LOGGER.error("compressionLevel of GZIP must be between 0 and 9, using the default");
+		return Deflater.DEFAULT_COMPRESSION;
+	}
+
+	private static int zstdLevel(final int level) {
+		if (level >= 1 && level <= ZSTD_MAX_LEVEL) {
+			return level;
+		}
+		if (level != -1) {
+			LOGGER.error("compressionLevel of ZSTD must be between 1 and {}, using {}", ZSTD_MAX_LEVEL,
+					ZSTD_DEFAULT_LEVEL);
+		}
+		return ZSTD_DEFAULT_LEVEL;
+	}
+
+	private static Method zstd() {
+		try {
+			return Class.forName(ZSTD_CLASS).getMethod("compress", byte[].class, int.class);
+		} catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+			return null;
+		}
+	}
+
+	private static final class Gzip extends ChunkCompressor {
+
+		private final int level;
+
+		Gzip(final int level) {
+			this.level = level;
+		}
+
+		@Override
+		String getName() {
+			return "gzip";
+		}
+
+		@Override
+		byte[] compress(final byte[] entries) throws IOException {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(entries.length / 4, 64));
+			try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+				{
+					def.setLevel(level);
+				}
+			}) {
+				gzip.write(entries);
+			}
+			return compressed.toByteArray();
+		}
+	}
+
+	private static final class Zstd extends ChunkCompressor {
+
+		private final Method compress;
+		private final int level;
+
+		Zstd(final Method compress, final int level) {
+			this.compress = compress;
+			this.level = level;
+		}
+
+		@Override
+		String getName() {
+			return "zstd";
+		}
+
+		@Override
+		byte[] compress(final byte[] entries) throws IOException {
+			try {
+				return (byte[]) compress.invoke(null, entries, level);
+			} catch (IllegalAccessException e) {
+				throw new IOException(e);
+			} catch (InvocationTargetException e) {
+				throw new IOException("zstd compression failed", e.getCause());
+			}
+		}
+	}
+}
@@ -28,9 +28,17 @@ import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
 
+import io.github.technologize.log4j.appender.fluency.core.AggregationConfig;
+import io.github.technologize.log4j.appender.fluency.core.AppenderOptions;
+import io.github.technologize.log4j.appender.fluency.core.AsyncQueueConfig;
+import io.github.technologize.log4j.appender.fluency.core.BackpressureConfig;
+import io.github.technologize.log4j.appender.fluency.core.BatchingConfig;
 import io.github.technologize.log4j.appender.fluency.core.Field;
 import io.github.technologize.log4j.appender.fluency.core.FluencyAppender;
 import io.github.technologize.log4j.appender.fluency.core.FluencyConfig;
+import io.github.technologize.log4j.appender.fluency.core.MetricsConfig;
+import io.github.technologize.log4j.appender.fluency.core.RateLimitConfig;
+import io.github.technologize.log4j.appender.fluency.core.RecordConfig;
 
 /**
  * @author Bharat Gadde
@@ -59,6 +67,22 @@ public class FluentdAppender extends FluencyAppender {
 		super(name, tag, fields, fluentdConfig, filter, layout, ignoreExceptions);
 	}
 
+	/**
+	 * Creates fluentd appender
+	 * @param name
+	 * @param tag
+	 * @param fields
+	 * @param fluentdConfig
+	 * @param options optional elements, null for none
+	 * @param filter
+	 * @param layout
+	 * @param ignoreExceptions
+	 */
+	protected FluentdAppender(String name, String tag, Field[] fields, FluencyConfig fluentdConfig,
+			AppenderOptions options, Filter filter, Layout<? extends Serializable> layout, String ignoreExceptions) {
+		super(name, tag, fields, fluentdConfig, options, filter, layout, ignoreExceptions);
+	}
+
 	/**
 	 * Creates fluentd appender
 	 * @param name
@@ -66,6 +90,13 @@ public class FluentdAppender extends FluencyAppender {
 	 * @param ignoreExceptions
 	 * @param fields
 	 * @param fluentdConfig
+	 * @param recordConfig
+	 * @param asyncQueueConfig
+	 * @param batchingConfig
+	 * @param backpressureConfig
+	 * @param rateLimits
+	 * @param aggregationConfig
+	 * @param metricsConfig
 	 * @param layout
 	 * @param filter
 	 * @return
@@ -76,11 +107,22 @@ public class FluentdAppender extends FluencyAppender {
 			@PluginAttribute("ignoreExceptions") final String ignoreExceptions,
 			@PluginElement(Field.ELEMENT_TYPE) final Field[] fields,
 			@PluginElement(FluencyConfig.ELEMENT_TYPE) final FluentdConfig fluentdConfig,
+			@PluginElement(RecordConfig.ELEMENT_TYPE) final RecordConfig recordConfig,
+			@PluginElement(AsyncQueueConfig.ELEMENT_TYPE) final AsyncQueueConfig asyncQueueConfig,
+			@PluginElement(BatchingConfig.ELEMENT_TYPE) final BatchingConfig batchingConfig,
+			@PluginElement(BackpressureConfig.ELEMENT_TYPE) final BackpressureConfig backpressureConfig,
+			@PluginElement(RateLimitConfig.ELEMENT_TYPE) final RateLimitConfig[] rateLimits,
+			@PluginElement(AggregationConfig.ELEMENT_TYPE) final AggregationConfig aggregationConfig,
+			@PluginElement(MetricsConfig.ELEMENT_TYPE) final MetricsConfig metricsConfig,
 			@PluginElement(Layout.ELEMENT_TYPE) Layout<? extends Serializable> layout,
 			@PluginElement(Filter.ELEMENT_TYPE) final Filter filter) {
 
 		FluencyConfig config = Objects.nonNull(fluentdConfig) ? fluentdConfig : new FluentdConfig();
-		return new FluentdAppender(name, tag, fields, config, filter, layout, ignoreExceptions);
+		AppenderOptions options = AppenderOptions.newBuilder().setRecordConfig(recordConfig)
+				.setAsyncQueueConfig(asyncQueueConfig).setBatchingConfig(batchingConfig)
+				.setBackpressureConfig(backpressureConfig).setRateLimits(rateLimits)
+				.setAggregationConfig(aggregationConfig).setMetricsConfig(metricsConfig).build();
+		return new FluentdAppender(name, tag, fields, config, options, filter, layout, ignoreExceptions);
 	}
 
 }
@@ -16,35 +16,125 @@
 package io.github.technologize.log4j.appender.fluentd;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
+import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.Core;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.util.Assert;
+import org.apache.logging.log4j.status.StatusLogger;
 import org.komamitsu.fluency.Fluency;
 import org.komamitsu.fluency.fluentd.FluencyBuilderForFluentd;
+import org.komamitsu.fluency.fluentd.recordformat.FluentdRecordFormatter;
 
 import io.github.technologize.log4j.appender.fluency.core.FluencyConfig;
+import io.github.technologize.log4j.appender.fluency.core.SharedFluencyConfig;
 
 /**
  * @author Bharat Gadde
  *
  */
 @Plugin(name = FluentdConfig.PLUGIN_TYPE, category = Core.CATEGORY_NAME, elementType = FluencyConfig.ELEMENT_TYPE, printObject = true)
-public class FluentdConfig implements FluencyConfig {
+public class FluentdConfig implements SharedFluencyConfig {
 	
 	/**
 	 * FluentdConfig plugin type
 	 */
 	public static final String PLUGIN_TYPE = "FluentdConfig";
 	
+	private static final long DEFAULT_MAX_BUFFER_SIZE = 536870912;
+	/* used by fluency when not configured */
+	private static final int FLUENCY_DEFAULT_WAIT_SECONDS = 60;
+	static final String DEFAULT_HOST = "127.0.0.1";
+	static final int DEFAULT_PORT = 24224;
+	private static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+	private static final int DEFAULT_SLOW_SERVER_MILLIS = 2000;
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/**
+	 * How chunks are spread over the servers
+	 */
+	public enum LoadBalancing {
+		/**
+		 * The first server in rotation takes all chunks, like fluency's sender
+		 */
+		FAILOVER,
+		/**
+		 * Connections take turns
+		 */
+		ROUND_ROBIN,
+		/**
+		 * The connection with the fewest bytes queued or in flight
+		 */
+		LEAST_OUTSTANDING,
+		/**
+		 * Chunks of a tag always go to the same server while it is in rotation (consistent hashing)
+		 */
+		TAG_HASH
+	}
+
+	/**
+	 * Compression of the entries of a chunk (CompressedPackedForward)
+	 */
+	public enum Compression {
+		/**
+		 * Entries are sent as they are
+		 */
+		NONE,
+		/**
+		 * gzip, supported by all fluentd versions
+		 */
+		GZIP,
+		/**
+		 * zstd, needs zstd-jni on the class path and fluentd 1.17 or later
+		 */
+		ZSTD
+	}
+
+	/**
+	 * How the forward sender talks to the servers
+	 */
+	public enum Transport {
+		/**
+		 * Blocking sockets, a thread per connection. Unix domain sockets of
+		 * servers with a path are channels still
+		 */
+		SOCKET,
+		/**
+		 * Non-blocking channels, one selector thread for all connections
+		 */
+		NIO
+	}
+
     private Server[] servers;
     private FluencyBuilderForFluentd fluencyBuilder;
+    private long maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+    private int waitUntilBufferFlushed = FLUENCY_DEFAULT_WAIT_SECONDS;
+    private int waitUntilFlusherTerminated = FLUENCY_DEFAULT_WAIT_SECONDS;
+    private boolean jvmHeapBufferMode;
+    private int connectionTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private boolean ackResponseMode;
+    private boolean sslEnabled;
+    private int senderMaxRetryCount = 8;
+    private int senderBaseRetryIntervalMillis = 400;
+    private int senderMaxRetryIntervalMillis = 30000;
+    private LoadBalancing loadBalancing;
+    private int connectionsPerServer = 1;
+    private int slowServerMillis = DEFAULT_SLOW_SERVER_MILLIS;
+    private int maxInflightChunks = 1;
+    private Compression compression = Compression.NONE;
+    private int compressionLevel = -1;
+    private Transport transport = Transport.SOCKET;
+    private String managerName = PLUGIN_TYPE + " [default]";
     
     /**
      * @param servers
@@ -64,6 +154,13 @@ public class FluentdConfig implements FluencyConfig {
      * @param sslEnabled
      * @param jvmHeapBufferMode
      * @param fileBackupDir
+     * @param loadBalancing FAILOVER, ROUND_ROBIN, LEAST_OUTSTANDING or TAG_HASH, fluency's sender when not set
+     * @param connectionsPerServer parallel connections to every server when loadBalancing is set
+     * @param slowServerMillis a server taking longer per chunk on average is out of rotation, 0 to keep slow servers
+     * @param maxInflightChunks chunks written per connection before their acks arrive, in ack mode
+     * @param compression NONE, GZIP or ZSTD
+     * @param compressionLevel -1 for the default level of the compression
+     * @param transport SOCKET or NIO
      * @return
      */
     @PluginFactory
@@ -83,11 +180,70 @@ public class FluentdConfig implements FluencyConfig {
     		@PluginAttribute(value= "readTimeoutMillis", defaultInt= 5000) final int readTimeoutMillis,
     		@PluginAttribute(value= "ackResponseMode") final boolean ackResponseMode,
     		@PluginAttribute(value= "sslEnabled") final boolean sslEnabled,
-    		@PluginAttribute(value= "jvmHeapBufferMode", defaultBoolean= true) final boolean jvmHeapBufferMode,
-    		@PluginAttribute("fileBackupDir") final String fileBackupDir) {
+    		@PluginAttribute(value= "jvmHeapBufferMode") final boolean jvmHeapBufferMode,
+    		@PluginAttribute("fileBackupDir") final String fileBackupDir,
+    		@PluginAttribute("loadBalancing") final String loadBalancing,
+    		@PluginAttribute(value= "connectionsPerServer", defaultInt= 1) final int connectionsPerServer,
+    		@PluginAttribute(value= "slowServerMillis", defaultInt= DEFAULT_SLOW_SERVER_MILLIS) final int slowServerMillis,
+    		@PluginAttribute(value= "maxInflightChunks", defaultInt= 1) final int maxInflightChunks,
+    		@PluginAttribute("compression") final String compression,
+    		@PluginAttribute(value= "compressionLevel", defaultInt= -1) final int compressionLevel,
+    		@PluginAttribute("transport") final String transport) {
     	
     	FluentdConfig config = new FluentdConfig();
     	config.servers = servers;
+    	config.maxBufferSize = maxBufferSize;
+    	config.waitUntilBufferFlushed = waitUntilBufferFlushed;
+    	config.waitUntilFlusherTerminated = waitUntilFlusherTerminated;
+    	config.jvmHeapBufferMode = jvmHeapBufferMode;
+    	config.connectionTimeoutMillis = connectionTimeoutMillis;
+    	config.readTimeoutMillis = readTimeoutMillis;
+    	config.ackResponseMode = ackResponseMode;
+    	config.sslEnabled = sslEnabled;
+    	config.senderMaxRetryCount = senderMaxRetryCount;
+    	config.senderBaseRetryIntervalMillis = senderBaseRetryIntervalMillis;
+    	config.senderMaxRetryIntervalMillis = senderMaxRetryIntervalMillis;
+    	if (Assert.isNonEmpty(loadBalancing)) {
+    		try {
+    			config.loadBalancing = LoadBalancing.valueOf(loadBalancing.trim().toUpperCase(Locale.ROOT));
+    		} catch (IllegalArgumentException e) {
+    			LOGGER.error("Unknown loadBalancing {}, using fluency's sender", loadBalancing);
+    		}
+    	}
+    	if (connectionsPerServer > 0) {
+    		config.connectionsPerServer = connectionsPerServer;
+    	} else {
+    		LOGGER.error("connectionsPerServer must be > 0, using {}", config.connectionsPerServer);
+    	}
+    	if (slowServerMillis >= 0) {
+    		config.slowServerMillis = slowServerMillis;
+    	} else {
+    		LOGGER.error("slowServerMillis must be >= 0, using {}", config.slowServerMillis);
+    	}
+    	if (maxInflightChunks > 0) {
+    		config.maxInflightChunks = maxInflightChunks;
+    	} else {
+    		LOGGER.error("maxInflightChunks must be > 0, using {}", config.maxInflightChunks);
+    	}
+    	if (Assert.isNonEmpty(compression)) {
+    		try {
+    			config.compression = Compression.valueOf(compression.trim().toUpperCase(Locale.ROOT));
+    		} catch (IllegalArgumentException e) {
+    			LOGGER.error("Unknown compression {}, using {}", compression, config.compression);
+    		}
+    	}
+    	config.compressionLevel = compressionLevel;
+    	if (Assert.isNonEmpty(transport)) {
+    		try {
+    			config.transport = Transport.valueOf(transport.trim().toUpperCase(Locale.ROOT));
+    		} catch (IllegalArgumentException e) {
+    			LOGGER.error("Unknown transport {}, using {}", transport, config.transport);
+    		}
+    	}
+    	if (config.transport == Transport.NIO && sslEnabled) {
+    		LOGGER.error("transport NIO does not support sslEnabled, using {}", Transport.SOCKET);
+    		config.transport = Transport.SOCKET;
+    	}
     	config.fluencyBuilder = new FluencyBuilderForFluentd();
     	
     	FluencyBuilderForFluentd builder = config.fluencyBuilder;
@@ -107,6 +263,27 @@ public class FluentdConfig implements FluencyConfig {
     	builder.setSslEnabled(sslEnabled);
     	builder.setJvmHeapBufferMode(jvmHeapBufferMode);
     	builder.setFileBackupDir(fileBackupDir);
+
+    	List<String> addresses = new ArrayList<>();
+    	if (Assert.isNonEmpty(servers)) {
+    		for (Server server : servers) {
+    			addresses.add(server.getPath() != null ? server.getPath()
+    					: server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    		}
+    	}
+    	config.managerName = PLUGIN_TYPE + " [servers=" + addresses + ", maxBufferSize=" + maxBufferSize
+    			+ ", bufferChunkInitialSize=" + bufferChunkInitialSize + ", bufferChunkRetentionSize="
+    			+ bufferChunkRetentionSize + ", bufferChunkRetentionTimeMillis=" + bufferChunkRetentionTimeMillis
+    			+ ", flushAttemptIntervalMillis=" + flushAttemptIntervalMillis + ", waitUntilBufferFlushed="
+    			+ waitUntilBufferFlushed + ", waitUntilFlusherTerminated=" + waitUntilFlusherTerminated
+    			+ ", senderMaxRetryCount=" + senderMaxRetryCount + ", senderBaseRetryIntervalMillis="
+    			+ senderBaseRetryIntervalMillis + ", senderMaxRetryIntervalMillis=" + senderMaxRetryIntervalMillis
+    			+ ", connectionTimeoutMillis=" + connectionTimeoutMillis + ", readTimeoutMillis=" + readTimeoutMillis
+    			+ ", ackResponseMode=" + ackResponseMode + ", sslEnabled=" + sslEnabled + ", jvmHeapBufferMode="
+    			+ jvmHeapBufferMode + ", fileBackupDir=" + fileBackupDir + ", loadBalancing=" + config.loadBalancing
+    			+ ", connectionsPerServer=" + config.connectionsPerServer + ", slowServerMillis="
+    			+ config.slowServerMillis + ", maxInflightChunks=" + config.maxInflightChunks + ", compression="
+    			+ config.compression + ", compressionLevel=" + compressionLevel + ", transport=" + config.transport + "]";
         return config;
     }
     
@@ -116,15 +293,152 @@ public class FluentdConfig implements FluencyConfig {
     public Fluency makeFluency() {
     	FluencyBuilderForFluentd builder = Objects.nonNull(this.fluencyBuilder) ? this.fluencyBuilder : new FluencyBuilderForFluentd();
     	
+    	List<SocketAddress> addresses = new ArrayList<>();
+    	boolean unixDomainSockets = false;
     	if (Assert.isNonEmpty(servers)) {
-        	List<InetSocketAddress> addresses = new ArrayList<>();
+    		for (Server server : this.servers) {
+    			SocketAddress address = socketAddress(server);
+    			unixDomainSockets |= !(address instanceof InetSocketAddress);
+    			addresses.add(address);
+    		}
+    	}
+
+    	/* fluency's sender waits for every ack before sending the next chunk, does not compress, blocks and only knows TCP */
+    	if (loadBalancing != null || (ackResponseMode && maxInflightChunks > 1) || compression != Compression.NONE
+    			|| transport == Transport.NIO || unixDomainSockets) {
+    		if (addresses.isEmpty()) {
+    			addresses.add(new InetSocketAddress(DEFAULT_HOST, DEFAULT_PORT));
+    		}
+    		BalancingSender sender = new BalancingSender(addresses, this);
+    		ChunkCompressor compressor = ChunkCompressor.create(compression, compressionLevel);
+    		return builder.buildFromIngester(new FluentdRecordFormatter(),
+    				new ForwardIngester(sender, ackResponseMode, compressor));
+    	}
+
+    	if (Assert.isNonEmpty(servers)) {
+        	List<InetSocketAddress> inetAddresses = new ArrayList<>();
 			for (Server server : this.servers) {
-				addresses.add(server.getAddress());
+				inetAddresses.add(server.getAddress());
 			}
-			return builder.build(addresses);
+			return builder.build(inetAddresses);
 		}
     	
     	return builder.build();
     }
 
+    /* unix domain socket of the server, its TCP address without support of the JDK or with SSL */
+    private SocketAddress socketAddress(final Server server) {
+    	if (server.getPath() == null) {
+    		return server.getAddress();
+    	}
+    	if (sslEnabled) {
+    		LOGGER.error("Server path {} does not support sslEnabled, using {}", server.getPath(), server.getAddress());
+    		return server.getAddress();
+    	}
+    	if (!UnixDomainSockets.isSupported()) {
+    		LOGGER.warn("Unix domain sockets need Java 16 or later, using {} instead of {}", server.getAddress(),
+    				server.getPath());
+    		return server.getAddress();
+    	}
+    	try {
+    		return UnixDomainSockets.address(server.getPath());
+    	} catch (IllegalArgumentException e) {
+    		LOGGER.error("Invalid server path {}, using {}: {}", server.getPath(), server.getAddress(), e.getMessage());
+    		return server.getAddress();
+    	}
+    }
+
+    /**
+     * returns the settings, appenders with equal settings share one fluency
+     */
+    public Object getManagerKey() {
+    	return managerName;
+    }
+
+    /**
+     * returns the settings
+     */
+    public String getManagerName() {
+    	return managerName;
+    }
+
+    /**
+     * returns max buffer size
+     */
+    public long getMaxBufferSize() {
+    	return maxBufferSize;
+    }
+
+    /**
+     * returns seconds fluency waits for its buffer to be flushed on close
+     */
+    public int getWaitUntilBufferFlushed() {
+    	return waitUntilBufferFlushed;
+    }
+
+    /**
+     * returns seconds fluency waits for its flusher to terminate on close
+     */
+    public int getWaitUntilFlusherTerminated() {
+    	return waitUntilFlusherTerminated;
+    }
+
+    /**
+     * returns whether fluency's buffer chunks are on the JVM heap
+     */
+    public boolean isJvmHeapBufferMode() {
+    	return jvmHeapBufferMode;
+    }
+
+    /**
+     * returns how chunks are spread over the servers, null for fluency's sender
+     */
+    LoadBalancing getLoadBalancing() {
+    	return loadBalancing;
+    }
+
+    Transport getTransport() {
+    	return transport;
+    }
+
+    int getMaxInflightChunks() {
+    	return maxInflightChunks;
+    }
+
+    int getConnectionsPerServer() {
+    	return connectionsPerServer;
+    }
+
+    int getSlowServerMillis() {
+    	return slowServerMillis;
+    }
+
+    int getConnectionTimeoutMillis() {
+    	return connectionTimeoutMillis;
+    }
+
+    int getReadTimeoutMillis() {
+    	return readTimeoutMillis;
+    }
+
+    boolean isAckResponseMode() {
+    	return ackResponseMode;
+    }
+
+    boolean isSslEnabled() {
+    	return sslEnabled;
+    }
+
+    int getSenderMaxRetryCount() {
+    	return senderMaxRetryCount;
+    }
+
+    int getSenderBaseRetryIntervalMillis() {
+    	return senderBaseRetryIntervalMillis;
+    }
+
+    int getSenderMaxRetryIntervalMillis() {
+    	return senderMaxRetryIntervalMillis;
+    }
+
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.msgpack.core.MessageBufferPacker;
+
+/**
+ * A chunk of fluency's buffer framed as a Forward protocol PackedForward
+ * message: [tag, entries, option], or CompressedPackedForward when the
+ * entries are compressed. The entries are copied, fluency reuses its buffer
+ * once the chunk is handed over.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ForwardChunk {
+
+	final String tag;
+	/* chunk option the server acks, null when acks are off */
+	final String id;
+	/* order in which fluency flushed the chunks */
+	final long seq;
+
+	private final byte[] header;
+	private final byte[] entries;
+	private final byte[] option;
+
+	/* number of failed attempts, only touched by the connection owning the chunk */
+	int attempts;
+	/* when the chunk was written */
+	volatile long sentNanos;
+
+	private ForwardChunk(final String tag, final String id, final long seq, final byte[] header,
+			final byte[] entries, final byte[] option) {
+		this.tag = tag;
+		this.id = id;
+		this.seq = seq;
+		this.header = header;
+		this.entries = entries;
+		this.option = option;
+	}
+
+	/**
+	 * Frames packed entries of one tag
+	 * @param tag
+	 * @param entries MessagePack [time, record] arrays one after another, compressed when compressed is set
+	 * @param id chunk id the server has to ack, null for no ack
+	 * @param seq order of the chunk, kept when chunks are retried
+	 * @param compressed value of the compressed option, null for uncompressed entries
+	 * @param packer packer of the header and option, reused by the caller
+	 * @return
+	 * @throws IOException
+	 */
+	static ForwardChunk create(final String tag, final byte[] entries, final String id, final long seq,
+			final String compressed, final MessageBufferPacker packer) throws IOException {
+		int options = (id != null ? 1 : 0) + (compressed != null ? 1 : 0);
+		packer.clear();
+		packer.packArrayHeader(options > 0 ? 3 : 2);
+		packer.packString(tag);
+		packer.packBinaryHeader(entries.length);
+		byte[] header = packer.toByteArray();
+		byte[] option = null;
+		if (options > 0) {
+			packer.clear();
+			packer.packMapHeader(options);
+			if (id != null) {
+				packer.packString("chunk");
+				packer.packString(id);
+			}
+			if (compressed != null) {
+				packer.packString("compressed");
+				packer.packString(compressed);
+			}
+			option = packer.toByteArray();
+		}
+		return new ForwardChunk(tag, id, seq, header, entries, option);
+	}
+
+	/**
+	 * returns number of bytes on the wire
+	 * @return
+	 */
+	int size() {
+		return header.length + entries.length + (option != null ? option.length : 0);
+	}
+
+	/**
+	 * returns the message as buffers wrapping its parts, for gathering writes
+	 * @return
+	 */
+	ByteBuffer[] buffers() {
+		if (option != null) {
+			return new ByteBuffer[] { ByteBuffer.wrap(header), ByteBuffer.wrap(entries), ByteBuffer.wrap(option) };
+		}
+		return new ByteBuffer[] { ByteBuffer.wrap(header), ByteBuffer.wrap(entries) };
+	}
+
+	/**
+	 * Writes the message, the caller flushes
+	 * @param output
+	 * @throws IOException
+	 */
+	void writeTo(final OutputStream output) throws IOException {
+		output.write(header);
+		output.write(entries);
+		if (option != null) {
+			output.write(option);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * A connection to a fluentd server taking chunks from its queue. A failing
+ * or slow connection opens its circuit: it is out of rotation, its chunks go
+ * to other connections and after a backoff it reconnects as health check
+ * before taking chunks again.
+ *
+ * In ack mode up to maxInflightChunks chunks are written before their acks
+ * arrive, acks are matched to chunks by chunk id. When the connection fails
+ * all unacked chunks are retried, so every chunk is delivered at least once.
+ * Retried and rerouted chunks are queued in the order fluency flushed them,
+ * a connection taking them back sends them ahead of newer chunks.
+ *
+ * @author Bharat Gadde
+ *
+ */
+abstract class ForwardConnection {
+
+	protected static final Logger LOGGER = StatusLogger.getLogger();
+
+	/* weight of the latest chunk in the average send time, 1/4 */
+	private static final int AVERAGE_SHIFT = 2;
+
+	protected final BalancingSender sender;
+	protected final SocketAddress address;
+	protected final String name;
+	protected final LinkedBlockingDeque<ForwardChunk> queue = new LinkedBlockingDeque<>();
+
+	private final int server;
+	private final AtomicLong outstandingBytes = new AtomicLong();
+
+	private volatile boolean open;
+	private volatile long openUntilNanos;
+	private volatile long averageNanos;
+	/* only touched by the thread doing the I/O of the connection */
+	private int failures;
+
+	/**
+	 * @param sender
+	 * @param address
+	 * @param server index of the server in the configured servers
+	 * @param connection index of the connection to the server
+	 */
+	ForwardConnection(final BalancingSender sender, final SocketAddress address, final int server,
+			final int connection) {
+		this.sender = sender;
+		this.address = address;
+		this.server = server;
+		this.name = "FluentdSender " + address + " #" + connection;
+	}
+
+	abstract void start();
+
+	/**
+	 * Stops sending, chunks still queued or unacked are left behind
+	 */
+	abstract void stop();
+
+	/**
+	 * Called once a chunk is queued
+	 */
+	protected void wakeUp() {
+		/* the sender thread polls its queue */
+	}
+
+	/**
+	 * returns index of the server in the configured servers
+	 * @return
+	 */
+	int getServer() {
+		return server;
+	}
+
+	/**
+	 * returns whether the connection is in rotation
+	 * @return
+	 */
+	boolean isAvailable() {
+		return !open;
+	}
+
+	/**
+	 * returns when the circuit of a connection out of rotation closes again
+	 * @return
+	 */
+	long getOpenUntilNanos() {
+		return openUntilNanos;
+	}
+
+	/**
+	 * returns bytes of chunks queued, being sent or waiting for their ack
+	 * @return
+	 */
+	long getOutstandingBytes() {
+		return outstandingBytes.get();
+	}
+
+	/**
+	 * Queues a chunk fluency just flushed
+	 * @param chunk
+	 */
+	void enqueue(final ForwardChunk chunk) {
+		outstandingBytes.addAndGet(chunk.size());
+		synchronized (queue) {
+			queue.offerLast(chunk);
+		}
+		wakeUp();
+	}
+
+	/**
+	 * Queues a retried or rerouted chunk in the order fluency flushed it,
+	 * ahead of newer chunks already queued
+	 * @param chunk
+	 */
+	void requeue(final ForwardChunk chunk) {
+		outstandingBytes.addAndGet(chunk.size());
+		synchronized (queue) {
+			/* the queue holds few chunks, bounded by the permits of the sender */
+			List<ForwardChunk> queued = drainQueue();
+			int index = queued.size();
+			while (index > 0 && queued.get(index - 1).seq > chunk.seq) {
+				index--;
+			}
+			queued.add(index, chunk);
+			for (ForwardChunk next : queued) {
+				queue.offerLast(next);
+			}
+		}
+		wakeUp();
+	}
+
+	/**
+	 * returns whether the circuit is open and its backoff has passed
+	 * @param now
+	 * @return
+	 */
+	protected boolean isProbeDue(final long now) {
+		return open && now - openUntilNanos >= 0;
+	}
+
+	/**
+	 * Closes the circuit after a successful health check
+	 */
+	protected void backInRotation() {
+		failures = 0;
+		averageNanos = 0;
+		open = false;
+		LOGGER.info("Fluentd server {} is back in rotation", address);
+	}
+
+	/**
+	 * Called once the chunk is written, in ack mode once it is acked
+	 * @param chunk
+	 */
+	protected void completed(final ForwardChunk chunk) {
+		outstandingBytes.addAndGet(-chunk.size());
+		sender.completed(chunk);
+
+		long average = averageNanos;
+		average += (System.nanoTime() - chunk.sentNanos - average) >> AVERAGE_SHIFT;
+		averageNanos = average;
+		if (!open && average > sender.getSlowServerNanos() && sender.getSlowServerNanos() > 0
+				&& sender.hasOtherAvailable(this)) {
+			LOGGER.warn("Fluentd server {} takes {} ms per chunk, out of rotation for {} ms", address,
+					TimeUnit.NANOSECONDS.toMillis(average), sender.getBaseRetryIntervalMillis());
+			openCircuit(sender.getBaseRetryIntervalMillis());
+			rerouteQueued();
+		}
+	}
+
+	/**
+	 * Opens the circuit after a failure and retries the chunks, they are
+	 * queued again in the order fluency flushed them
+	 * @param e
+	 * @param retries chunks which failed
+	 */
+	protected void failed(final Exception e, final List<ForwardChunk> retries) {
+		failures++;
+		long backoff = Math.min((long) sender.getBaseRetryIntervalMillis() << Math.min(failures - 1, 20),
+				sender.getMaxRetryIntervalMillis());
+		if (!open) {
+			LOGGER.warn("Fluentd server {} failed, out of rotation for {} ms, retrying {} chunks: {}", address,
+					backoff, retries.size(), e.getMessage());
+		}
+		openCircuit(backoff);
+		for (ForwardChunk chunk : retries) {
+			outstandingBytes.addAndGet(-chunk.size());
+			sender.retry(chunk, this);
+		}
+		rerouteQueued();
+	}
+
+	/**
+	 * Moves a chunk taken from the queue to another connection
+	 * @param chunk
+	 */
+	protected void reroute(final ForwardChunk chunk) {
+		outstandingBytes.addAndGet(-chunk.size());
+		sender.reroute(chunk, this);
+	}
+
+	private void openCircuit(final long millis) {
+		openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		open = true;
+	}
+
+	/* queued chunks go to connections in rotation, without counting as a failed attempt */
+	private void rerouteQueued() {
+		for (ForwardChunk chunk : drainQueue()) {
+			reroute(chunk);
+		}
+	}
+
+	private List<ForwardChunk> drainQueue() {
+		List<ForwardChunk> queued = new ArrayList<>();
+		queue.drainTo(queued);
+		return queued;
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.komamitsu.fluency.ingester.Ingester;
+import org.komamitsu.fluency.ingester.sender.Sender;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+/**
+ * {@link Ingester} handing fluency's chunks as PackedForward messages to a
+ * {@link BalancingSender}. Runs on fluency's flusher thread, so chunks are
+ * compressed there and not on logging threads. Fluency's buffer keeps a
+ * chunk per tag, every message carries the entries of one tag.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ForwardIngester implements Ingester {
+
+	private final BalancingSender sender;
+	private final boolean ackResponseMode;
+	private final ChunkCompressor compressor;
+	/* chunk ids only have to be unique per connection, a random prefix keeps them apart across restarts */
+	private final String chunkIdPrefix = Long.toHexString(new Random().nextLong()) + "-";
+	private final AtomicLong chunkIds = new AtomicLong();
+	/* only used by fluency's flusher thread */
+	private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+
+	/**
+	 * @param sender
+	 * @param ackResponseMode whether servers ack every chunk
+	 * @param compressor null to send entries uncompressed
+	 */
+	ForwardIngester(final BalancingSender sender, final boolean ackResponseMode, final ChunkCompressor compressor) {
+		this.sender = sender;
+		this.ackResponseMode = ackResponseMode;
+		this.compressor = compressor;
+	}
+
+	@Override
+	public void ingest(final String tag, final ByteBuffer dataBuffer) throws IOException {
+		/* fluency reuses its buffer once this returns, queued chunks need a copy */
+		byte[] entries = new byte[dataBuffer.remaining()];
+		dataBuffer.get(entries);
+		long seq = chunkIds.incrementAndGet();
+		String id = ackResponseMode ? chunkIdPrefix + Long.toHexString(seq) : null;
+		if (compressor != null) {
+			sender.send(ForwardChunk.create(tag, compressor.compress(entries), id, seq, compressor.getName(),
+					packer));
+		} else {
+			sender.send(ForwardChunk.create(tag, entries, id, seq, null, packer));
+		}
+	}
+
+	@Override
+	public Sender getSender() {
+		return sender;
+	}
+
+	@Override
+	public void close() throws IOException {
+		sender.close();
+	}
+}
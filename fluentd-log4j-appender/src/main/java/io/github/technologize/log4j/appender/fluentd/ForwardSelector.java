@@ -0,0 +1,120 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+/**
+ * One thread multiplexing the {@link ChannelConnection}s to all servers, so
+ * a slow server does not hold up the others and connections need no thread
+ * of their own
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ForwardSelector implements Runnable {
+
+	private static final Logger LOGGER = StatusLogger.getLogger();
+
+	/* timeouts and backoffs are checked at least this often */
+	private static final long SELECT_MILLIS = 100;
+
+	private final Selector selector;
+	private final List<ChannelConnection> connections = new ArrayList<>();
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	/**
+	 * @throws IOException when no selector can be opened
+	 */
+	ForwardSelector() throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, "FluentdSelector");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Adds a connection, before the selector is started
+	 * @param connection
+	 */
+	void add(final ChannelConnection connection) {
+		connections.add(connection);
+	}
+
+	Selector selector() {
+		return selector;
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the selector thread and closes all connections
+	 */
+	void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Wakes the selector thread up to pick up queued chunks
+	 */
+	void wakeUp() {
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				for (ChannelConnection connection : connections) {
+					connection.process(now);
+				}
+				selector.select(SELECT_MILLIS);
+				for (Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext();) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid()) {
+						((ChannelConnection) key.attachment()).ready(key);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			LOGGER.error("Selector of fluentd connections failed: {}", e.getMessage());
+		} finally {
+			for (ChannelConnection connection : connections) {
+				connection.close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOGGER.debug("Closing selector failed: {}", e.getMessage());
+			}
+		}
+	}
+}
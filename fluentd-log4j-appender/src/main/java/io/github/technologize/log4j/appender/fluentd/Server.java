@@ -22,7 +22,7 @@ import org.apache.logging.log4j.core.config.Node;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
-import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.util.Assert;
 import org.apache.logging.log4j.status.StatusLogger;
 
 /**
@@ -39,25 +39,51 @@ public class Server {
     private static final Logger LOGGER = StatusLogger.getLogger();
 
     private final InetSocketAddress address;
+    private final String path;
 
-    private Server(final String host, final int port) {
+    private Server(final String host, final int port, final String path) {
         this.address = new InetSocketAddress(host, port);
-        
+        this.path = path;
     }
 
+    /**
+     * @param host
+     * @param port
+     * @param path unix domain socket file of a local agent, host and port (127.0.0.1:24224 when not set) are used
+     * instead on JDKs before 16
+     * @return
+     */
     @PluginFactory
-    public static Server createServer(@PluginAttribute("host") @Required(message = "Property host cannot be null") final String host,
-            @PluginAttribute("port") @Required(message = "Property port must be > 0") final int port) {
+    public static Server createServer(@PluginAttribute("host") final String host,
+            @PluginAttribute("port") final int port,
+            @PluginAttribute("path") final String path) {
+        if (Assert.isNonEmpty(path)) {
+            return new Server(host != null ? host : FluentdConfig.DEFAULT_HOST,
+                    port > 0 ? port : FluentdConfig.DEFAULT_PORT, path);
+        }
         if (host == null) {
             LOGGER.error("Property host cannot be null");
+            return null;
         }
         if (port <= 0) {
             LOGGER.error("Property port must be > 0");
         }
-        return new Server(host, port);
+        return new Server(host, port, null);
     }
 
+	/**
+	 * returns TCP address of the server
+	 * @return
+	 */
 	public InetSocketAddress getAddress() {
 		return address;
 	}
+
+	/**
+	 * returns unix domain socket file of the server, null for TCP
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
 }
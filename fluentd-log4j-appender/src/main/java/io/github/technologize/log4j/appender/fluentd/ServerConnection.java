@@ -0,0 +1,312 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessageUnpacker;
+
+/**
+ * {@link ForwardConnection} over a blocking socket with a sender thread of
+ * its own, taking chunks from its queue one after another. In ack mode an
+ * ack reader thread per socket matches acks to the chunks in flight.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class ServerConnection extends ForwardConnection implements Runnable {
+
+	private static final long POLL_MILLIS = 100;
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+	/* chunks written and waiting for their ack in the order they were sent, also the lock of socket changes */
+	private final ArrayDeque<ForwardChunk> inflight = new ArrayDeque<>();
+	private final Thread thread;
+
+	private volatile boolean running = true;
+	private volatile Socket socket;
+
+	/* owned by the sender thread */
+	private OutputStream output;
+
+	/**
+	 * @param sender
+	 * @param address
+	 * @param server index of the server in the configured servers
+	 * @param connection index of the connection to the server
+	 */
+	ServerConnection(final BalancingSender sender, final SocketAddress address, final int server,
+			final int connection) {
+		super(sender, address, server, connection);
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+
+	@Override
+	void start() {
+		thread.start();
+	}
+
+	@Override
+	void stop() {
+		running = false;
+		thread.interrupt();
+		closeSocket();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				if (!isAvailable() && !probe()) {
+					continue;
+				}
+				ForwardChunk chunk = queue.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (chunk != null) {
+					send(chunk);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		closeSocket();
+	}
+
+	/* reconnects once the backoff has passed, returns whether the connection is back in rotation */
+	private boolean probe() throws InterruptedException {
+		long waitNanos = getOpenUntilNanos() - System.nanoTime();
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+			return false;
+		}
+		try {
+			connect();
+		} catch (IOException e) {
+			fail(null, e, null);
+			return false;
+		}
+		backInRotation();
+		return true;
+	}
+
+	private void send(final ForwardChunk chunk) throws InterruptedException {
+		Socket current = null;
+		boolean inflightChunk = false;
+		try {
+			if (socket == null && !isAvailable()) {
+				/* failed since the chunk was taken, it goes back in order with the retried chunks */
+				reroute(chunk);
+				return;
+			}
+			current = connect();
+			chunk.sentNanos = System.nanoTime();
+			if (sender.isAckResponseMode()) {
+				if (!addInflight(chunk, current)) {
+					/* the socket failed while waiting for room */
+					reroute(chunk);
+					return;
+				}
+				inflightChunk = true;
+			}
+			chunk.writeTo(output);
+			output.flush();
+		} catch (IOException | MessagePackException e) {
+			/* an unacked chunk is retried with the others waiting for their ack */
+			fail(current, e, inflightChunk ? null : chunk);
+			return;
+		}
+		if (!sender.isAckResponseMode()) {
+			completed(chunk);
+		}
+	}
+
+	/* waits for room in the pipeline, false when the socket is gone meanwhile */
+	private boolean addInflight(final ForwardChunk chunk, final Socket current) throws InterruptedException {
+		synchronized (inflight) {
+			while (inflight.size() >= sender.getMaxInflightChunks() && socket == current) {
+				inflight.wait(POLL_MILLIS);
+			}
+			if (socket != current) {
+				return false;
+			}
+			inflight.addLast(chunk);
+			inflight.notifyAll();
+			return true;
+		}
+	}
+
+	private void acked(final Socket current, final String id) throws IOException {
+		ForwardChunk chunk = null;
+		synchronized (inflight) {
+			if (socket != current) {
+				return;
+			}
+			/* fluentd acks in order, the chunk is at the head unless the server skipped one */
+			for (Iterator<ForwardChunk> chunks = inflight.iterator(); chunks.hasNext();) {
+				ForwardChunk candidate = chunks.next();
+				if (candidate.id.equals(id)) {
+					chunks.remove();
+					chunk = candidate;
+					break;
+				}
+			}
+			inflight.notifyAll();
+		}
+		if (chunk == null) {
+			throw new IOException("Unexpected ack " + id);
+		}
+		completed(chunk);
+	}
+
+	/*
+	 * Handles a failure of the socket once, the sender thread and the ack
+	 * reader may both see it. The circuit opens before the socket is gone,
+	 * so the sender thread does not send newer chunks on a new socket ahead
+	 * of the retried ones.
+	 */
+	private void fail(final Socket failed, final Exception e, final ForwardChunk unsent) {
+		synchronized (inflight) {
+			if (socket != failed) {
+				if (unsent != null) {
+					reroute(unsent);
+				}
+				return;
+			}
+			List<ForwardChunk> retries = new ArrayList<>(inflight);
+			inflight.clear();
+			if (unsent != null) {
+				retries.add(unsent);
+			}
+			failed(e, retries);
+			closeSocket();
+		}
+	}
+
+	private Socket connect() throws IOException {
+		Socket current = socket;
+		if (current != null) {
+			return current;
+		}
+		Socket newSocket = sender.isSslEnabled() ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+		MessageUnpacker acks = null;
+		try {
+			newSocket.setTcpNoDelay(true);
+			newSocket.connect(address, sender.getConnectionTimeoutMillis());
+			newSocket.setSoTimeout(sender.getReadTimeoutMillis());
+			if (newSocket instanceof SSLSocket) {
+				((SSLSocket) newSocket).startHandshake();
+			}
+			output = new BufferedOutputStream(newSocket.getOutputStream(), OUTPUT_BUFFER_SIZE);
+			if (sender.isAckResponseMode()) {
+				acks = MessagePack.newDefaultUnpacker(newSocket.getInputStream());
+			}
+		} catch (IOException e) {
+			newSocket.close();
+			throw e;
+		}
+		synchronized (inflight) {
+			socket = newSocket;
+		}
+		if (acks != null) {
+			Thread reader = new Thread(new AckReader(newSocket, acks), name + " acks");
+			reader.setDaemon(true);
+			reader.start();
+		}
+		return newSocket;
+	}
+
+	private void closeSocket() {
+		Socket current;
+		synchronized (inflight) {
+			current = socket;
+			socket = null;
+			inflight.notifyAll();
+		}
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				LOGGER.debug("Closing connection to fluentd server {} failed: {}", address, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads acks of one socket while chunks wait for them, a missing ack
+	 * times out after readTimeoutMillis
+	 */
+	private final class AckReader implements Runnable {
+
+		private final Socket current;
+		private final MessageUnpacker acks;
+
+		AckReader(final Socket current, final MessageUnpacker acks) {
+			this.current = current;
+			this.acks = acks;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					synchronized (inflight) {
+						while (inflight.isEmpty() && socket == current) {
+							inflight.wait();
+						}
+						if (socket != current) {
+							return;
+						}
+					}
+					acked(current, readAck());
+				}
+			} catch (IOException | MessagePackException e) {
+				fail(current, e, null);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private String readAck() throws IOException {
+			String ack = null;
+			int entries = acks.unpackMapHeader();
+			for (int i = 0; i < entries; i++) {
+				if ("ack".equals(acks.unpackString())) {
+					ack = acks.unpackString();
+				} else {
+					acks.skipValue();
+				}
+			}
+			if (ack == null) {
+				throw new IOException("Response without ack");
+			}
+			return ack;
+		}
+	}
+}
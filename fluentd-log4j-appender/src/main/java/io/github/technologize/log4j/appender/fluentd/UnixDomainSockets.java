@@ -0,0 +1,109 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unix domain sockets of {@link SocketChannel}, available since Java 16 and
+ * looked up by reflection so that the appender still runs on older JDKs.
+ *
+ * @author Bharat Gadde
+ *
+ */
+final class UnixDomainSockets {
+
+	private static final Method ADDRESS_OF;
+	private static final Method OPEN_CHANNEL;
+	private static final ProtocolFamily UNIX;
+
+	static {
+		Method addressOf = null;
+		Method openChannel = null;
+		ProtocolFamily unix = null;
+		try {
+			addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+			openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			unix = StandardProtocolFamily.valueOf("UNIX");
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalArgumentException e) {
+			addressOf = null;
+			openChannel = null;
+		}
+		ADDRESS_OF = addressOf;
+		OPEN_CHANNEL = openChannel;
+		UNIX = unix;
+	}
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * returns whether the JDK supports unix domain sockets
+	 * @return
+	 */
+	static boolean isSupported() {
+		return ADDRESS_OF != null;
+	}
+
+	/**
+	 * returns address of the socket file, null when the JDK does not support
+	 * unix domain sockets
+	 * @param path
+	 * @return
+	 */
+	static SocketAddress address(final String path) {
+		if (!isSupported()) {
+			return null;
+		}
+		try {
+			return (SocketAddress) ADDRESS_OF.invoke(null, path);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			/* an invalid path */
+			throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Opens a channel for the address, unix domain socket or TCP
+	 * @param address
+	 * @return
+	 * @throws IOException
+	 */
+	static SocketChannel open(final SocketAddress address) throws IOException {
+		if (address instanceof InetSocketAddress) {
+			return SocketChannel.open();
+		}
+		try {
+			return (SocketChannel) OPEN_CHANNEL.invoke(null, UNIX);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * AckDecoder reading responses split across reads the way
+ * ChannelConnection fills its buffer
+ *
+ * @author Bharat Gadde
+ *
+ */
+public class AckDecoderTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void fixmapWithFixstr() throws IOException {
+		String id = "5c0ffee-1";
+		assertSplitAck(id, response(false, string("ack", 0), string(id, 0)));
+	}
+
+	@Test
+	public void map16WithFixstr() throws IOException {
+		String id = "5c0ffee-2";
+		assertSplitAck(id, response(true, string("ack", 0), string(id, 0)));
+	}
+
+	@Test
+	public void fixmapWithStr8() throws IOException {
+		String id = chunkId(40);
+		assertSplitAck(id, response(false, string("ack", 0xd9), string(id, 0xd9)));
+	}
+
+	@Test
+	public void map16WithStr16() throws IOException {
+		String id = chunkId(300);
+		assertSplitAck(id, response(true, string("ack", 0xda), string(id, 0xda)));
+	}
+
+	@Test
+	public void otherKeysAreSkipped() throws IOException {
+		String id = chunkId(40);
+		assertSplitAck(id, response(true, string("node", 0), string("fluentd-1", 0xd9), string("ack", 0),
+				string(id, 0xda)));
+	}
+
+	@Test
+	public void acksInOneRead() throws IOException {
+		byte[] first = response(false, string("ack", 0), string("a-1", 0));
+		byte[] second = response(true, string("ack", 0xd9), string("a-2", 0xda));
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(first).put(second, 0, second.length - 1);
+		((Buffer) buffer).flip();
+		assertEquals("a-1", AckDecoder.next(buffer));
+		assertNull(AckDecoder.next(buffer));
+		assertEquals(second.length - 1, buffer.remaining());
+		buffer.compact();
+		buffer.put(second, second.length - 1, 1);
+		((Buffer) buffer).flip();
+		assertEquals("a-2", AckDecoder.next(buffer));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test(expected = IOException.class)
+	public void responseWithoutAck() throws IOException {
+		AckDecoder.next(ByteBuffer.wrap(response(false, string("node", 0), string("fluentd-1", 0))));
+	}
+
+	@Test(expected = IOException.class)
+	public void responseNotAMap() throws IOException {
+		AckDecoder.next(ByteBuffer.wrap(string("ack", 0)));
+	}
+
+	/* feeds the response in two reads split at every byte */
+	private static void assertSplitAck(final String id, final byte[] response) throws IOException {
+		for (int split = 0; split < response.length; split++) {
+			ByteBuffer buffer = ByteBuffer.allocate(response.length);
+			buffer.put(response, 0, split);
+			((Buffer) buffer).flip();
+			assertNull("split at " + split, AckDecoder.next(buffer));
+			assertEquals("split at " + split, split, buffer.remaining());
+			buffer.compact();
+			buffer.put(response, split, response.length - split);
+			((Buffer) buffer).flip();
+			assertEquals("split at " + split, id, AckDecoder.next(buffer));
+			assertFalse("split at " + split, buffer.hasRemaining());
+		}
+	}
+
+	private static String chunkId(final int length) {
+		char[] id = new char[length];
+		Arrays.fill(id, 'f');
+		return new String(id);
+	}
+
+	/* map of the given keys and values, map16 even when a fixmap would do */
+	private static byte[] response(final boolean map16, final byte[]... keysAndValues) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int entries = keysAndValues.length / 2;
+		if (map16) {
+			out.write(0xde);
+			out.write(entries >>> 8);
+			out.write(entries);
+		} else {
+			out.write(0x80 | entries);
+		}
+		for (byte[] value : keysAndValues) {
+			out.write(value, 0, value.length);
+		}
+		return out.toByteArray();
+	}
+
+	/* string of the given type, 0 for a fixstr */
+	private static byte[] string(final String value, final int type) {
+		byte[] bytes = value.getBytes(UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (type == 0) {
+			out.write(0xa0 | bytes.length);
+		} else if (type == 0xd9) {
+			out.write(type);
+			out.write(bytes.length);
+		} else {
+			out.write(type);
+			out.write(bytes.length >>> 8);
+			out.write(bytes.length);
+		}
+		out.write(bytes, 0, bytes.length);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * BalancingSender over both transports against {@link FakeForwardServer}s
+ *
+ * @author Bharat Gadde
+ *
+ */
+@RunWith(Parameterized.class)
+public class BalancingSenderTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String TAG = "test";
+	private static final int CHUNKS = 200;
+	/* larger than what the socket buffers take while the server does not read */
+	private static final int STALLED_CHUNK_SIZE = 8 << 20;
+	private static final int STALLED_CHUNKS = 3;
+	private static final long WAIT_MILLIS = 10000;
+	private static final long ACK_DELAY_MILLIS = 20;
+	private static final long DOWN_MILLIS = 300;
+
+	private final String transport;
+	private final List<Closeable> closeables = new ArrayList<>();
+
+	@Parameters(name = "{0}")
+	public static List<Object[]> transports() {
+		return Arrays.asList(new Object[][] { { "SOCKET" }, { "NIO" } });
+	}
+
+	public BalancingSenderTest(final String transport) {
+		this.transport = transport;
+	}
+
+	@After
+	public void close() throws IOException {
+		Collections.reverse(closeables);
+		for (Closeable closeable : closeables) {
+			closeable.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void acksMatchedByChunkId() throws Exception {
+		FakeForwardServer server = started(new FakeForwardServer(0));
+		server.record();
+		server.swapAcks();
+		ForwardIngester ingester = ingester(true, 8, 1000, 5000, null, server.getPort());
+		for (int i = 0; i < CHUNKS; i++) {
+			ingest(ingester, entry(i));
+		}
+		ingester.close();
+		/* an ack taken for the oldest chunk in flight would fail the connection and resend chunks */
+		assertEquals(CHUNKS, server.getMessages());
+		assertEquals(CHUNKS, new HashSet<>(server.getChunks()).size());
+		assertEquals(1, server.getConnections());
+	}
+
+	@Test(timeout = 30000)
+	public void stalledChunkTimesOut() throws Exception {
+		assertStalledChunkTimesOut(true);
+	}
+
+	@Test(timeout = 30000)
+	public void stalledWriteTimesOutWithoutAcks() throws Exception {
+		assumeTrue("blocking writes only time out while waiting for an ack", "NIO".equals(transport));
+		assertStalledChunkTimesOut(false);
+	}
+
+	@Test(timeout = 30000)
+	public void connectTimesOut() throws Exception {
+		int unresponsive = unresponsivePort();
+		FakeForwardServer server = started(new FakeForwardServer(0));
+		server.record();
+		ForwardIngester ingester = ingester(true, 1, 300, 5000, "ROUND_ROBIN", unresponsive, server.getPort());
+		long start = System.nanoTime();
+		for (int i = 0; i < CHUNKS; i++) {
+			ingest(ingester, entry(i));
+		}
+		ingester.close();
+		assertEquals(CHUNKS, new HashSet<>(server.getChunks()).size());
+		assertTrue("chunks waited for the unresponsive server",
+				System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS));
+	}
+
+	@Test(timeout = 30000)
+	public void retriesInFlushOrder() throws Exception {
+		final FakeForwardServer server = started(new FakeForwardServer(ACK_DELAY_MILLIS));
+		server.record();
+		ForwardIngester ingester = ingester(true, 8, 1000, 5000, null, server.getPort());
+		Thread reviver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(DOWN_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					server.revive();
+				}
+			}
+		}, "reviver");
+		reviver.setDaemon(true);
+		for (int i = 0; i < CHUNKS; i++) {
+			if (i == CHUNKS / 2) {
+				/* acks are delayed, so chunks are in flight when the server goes away */
+				server.kill();
+				reviver.start();
+			}
+			ingest(ingester, entry(i));
+		}
+		ingester.close();
+		assertTrue("server was not down", server.getConnections() > 1);
+		/* chunks sent before the server went away may be sent again, the first arrival counts */
+		List<Long> arrived = new ArrayList<>();
+		HashSet<Long> seen = new HashSet<>();
+		for (String chunk : server.getChunks()) {
+			long seq = Long.parseLong(chunk.substring(chunk.lastIndexOf('-') + 1), 16);
+			if (seen.add(seq)) {
+				arrived.add(seq);
+			}
+		}
+		List<Long> flushed = new ArrayList<>();
+		for (long seq = 1; seq <= CHUNKS; seq++) {
+			flushed.add(seq);
+		}
+		assertEquals(flushed, arrived);
+	}
+
+	/* the server stops reading, the connection must give up on the chunk and reconnect */
+	private void assertStalledChunkTimesOut(final boolean ackResponseMode) throws Exception {
+		final FakeForwardServer server = started(new FakeForwardServer(0));
+		server.record();
+		server.pause();
+		ForwardIngester ingester = ingester(ackResponseMode, 1, 1000, 300, null, server.getPort());
+		final long[] reconnectedNanos = new long[1];
+		final long start = System.nanoTime();
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (server.getConnections() < 2) {
+						Thread.sleep(10);
+					}
+					reconnectedNanos[0] = System.nanoTime() - start;
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					server.resume();
+				}
+			}
+		}, "stall watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		for (int i = 0; i < STALLED_CHUNKS; i++) {
+			byte[] entries = new byte[STALLED_CHUNK_SIZE];
+			Arrays.fill(entries, (byte) i);
+			ingest(ingester, entries);
+		}
+		watcher.join(WAIT_MILLIS);
+		watcher.interrupt();
+		ingester.close();
+		assertTrue("stalled connection never timed out", reconnectedNanos[0] > 0);
+		assertTrue("stalled connection timed out late",
+				reconnectedNanos[0] < TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS));
+		/* without acks the last chunk may still be on its way */
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+		HashSet<Byte> received = new HashSet<>();
+		while (received.size() < STALLED_CHUNKS && System.nanoTime() - deadline < 0) {
+			Thread.sleep(10);
+			for (byte[] entries : server.getEntries()) {
+				assertEquals(STALLED_CHUNK_SIZE, entries.length);
+				received.add(entries[0]);
+			}
+		}
+		assertEquals(STALLED_CHUNKS, received.size());
+	}
+
+	private <T extends Closeable> T started(final T closeable) {
+		closeables.add(closeable);
+		return closeable;
+	}
+
+	private ForwardIngester ingester(final boolean ackResponseMode, final int maxInflightChunks,
+			final int connectionTimeoutMillis, final int readTimeoutMillis, final String loadBalancing,
+			final int... ports) {
+		Server[] servers = new Server[ports.length];
+		List<SocketAddress> addresses = new ArrayList<>();
+		for (int i = 0; i < ports.length; i++) {
+			servers[i] = Server.createServer(InetAddress.getLoopbackAddress().getHostAddress(), ports[i], null);
+			addresses.add(servers[i].getAddress());
+		}
+		FluentdConfig config = FluentdConfig.createFluencyConfig(servers, 536870912, 1048576, 4194304, 1000, 600,
+				10, 10, 100, 50, 200, connectionTimeoutMillis, readTimeoutMillis, ackResponseMode, false, false,
+				null, loadBalancing, 1, 0, maxInflightChunks, null, -1, transport);
+		return new ForwardIngester(new BalancingSender(addresses, config), ackResponseMode, null);
+	}
+
+	/* like fluency's flusher, retries a chunk no connection took in time */
+	private static void ingest(final ForwardIngester ingester, final byte[] entries) throws InterruptedException {
+		while (true) {
+			try {
+				ingester.ingest(TAG, ByteBuffer.wrap(entries));
+				return;
+			} catch (IOException e) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private static byte[] entry(final int i) {
+		return String.format("%05d", i).getBytes(UTF_8);
+	}
+
+	/* a listening port whose backlog is full, connects to it neither succeed nor fail */
+	private int unresponsivePort() throws IOException {
+		ServerSocket unresponsive = started(new ServerSocket(0, 1, InetAddress.getLoopbackAddress()));
+		SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), unresponsive.getLocalPort());
+		for (int i = 0; i < 16; i++) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(address, 200);
+				started(socket);
+			} catch (SocketTimeoutException e) {
+				socket.close();
+				return unresponsive.getLocalPort();
+			}
+		}
+		throw new IOException("Backlog of " + address + " never filled");
+	}
+}
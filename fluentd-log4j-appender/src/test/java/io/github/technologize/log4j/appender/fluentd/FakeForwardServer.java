@@ -0,0 +1,444 @@
+/**
+ * Copyright [2021] [Bharat Gadde]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.technologize.log4j.appender.fluentd;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+/**
+ * In process fluentd forward server on a loopback port or a unix domain
+ * socket. It reads Message, Forward and (Compressed)PackedForward messages,
+ * counts them and acks chunks after a delay simulating the round trip to a
+ * remote server.
+ *
+ * Tests can also keep what was received, drop all connections (kill and
+ * revive), stop reading so that writes stall, and swap the acks of
+ * consecutive chunks.
+ *
+ * @author Bharat Gadde
+ *
+ */
+public class FakeForwardServer implements Closeable {
+
+	private static final int SCRATCH_SIZE = 65536;
+	/* an ack held for swapping is sent alone when no next chunk comes in this time */
+	private static final long SWAP_WAIT_MILLIS = 50;
+
+	private final ServerSocketChannel serverChannel;
+	private final String path;
+	private final long ackDelayMillis;
+	private final ScheduledExecutorService acks = Executors.newSingleThreadScheduledExecutor();
+	private final List<SocketChannel> channels = new CopyOnWriteArrayList<>();
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final List<byte[]> entries = new ArrayList<>();
+	private final List<String> chunks = new ArrayList<>();
+	private final Object readLock = new Object();
+
+	private volatile boolean recording;
+	private volatile boolean killed;
+	private volatile boolean paused;
+	private volatile boolean swapAcks;
+
+	/**
+	 * Starts accepting connections on a loopback port
+	 * @param ackDelayMillis delay of every ack, 0 to ack at once
+	 * @throws IOException
+	 */
+	public FakeForwardServer(final long ackDelayMillis) throws IOException {
+		this(ackDelayMillis, null);
+	}
+
+	/**
+	 * Starts accepting connections
+	 * @param ackDelayMillis delay of every ack, 0 to ack at once
+	 * @param path unix domain socket file, needs Java 16 or later, null for a loopback port
+	 * @throws IOException
+	 */
+	public FakeForwardServer(final long ackDelayMillis, final String path) throws IOException {
+		this.path = path;
+		this.ackDelayMillis = ackDelayMillis;
+		if (path != null) {
+			Files.deleteIfExists(Paths.get(path));
+			this.serverChannel = openUnixDomainSocket();
+			this.serverChannel.bind(unixDomainSocketAddress(path));
+		} else {
+			this.serverChannel = ServerSocketChannel.open();
+			this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		}
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "FakeForwardServer " + (path != null ? path : getPort()));
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * returns port the server listens on, 0 for a unix domain socket
+	 * @return
+	 */
+	public int getPort() {
+		return path == null ? serverChannel.socket().getLocalPort() : 0;
+	}
+
+	/**
+	 * returns unix domain socket file the server listens on, null for a loopback port
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * returns number of messages received
+	 * @return
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	/**
+	 * returns bytes of entries received, compressed as received
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * returns number of connections accepted, dropped ones included
+	 * @return
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Keeps the entries and chunk ids of messages received from now on
+	 */
+	public void record() {
+		recording = true;
+	}
+
+	/**
+	 * returns entries of PackedForward messages in the order received, duplicates included
+	 * @return
+	 */
+	public List<byte[]> getEntries() {
+		synchronized (entries) {
+			return new ArrayList<>(entries);
+		}
+	}
+
+	/**
+	 * returns chunk ids in the order received, duplicates included
+	 * @return
+	 */
+	public List<String> getChunks() {
+		synchronized (entries) {
+			return new ArrayList<>(chunks);
+		}
+	}
+
+	/**
+	 * Closes all connections and every new one until revived
+	 * @throws IOException
+	 */
+	public void kill() throws IOException {
+		killed = true;
+		for (SocketChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Takes connections again
+	 */
+	public void revive() {
+		killed = false;
+	}
+
+	/**
+	 * Stops reading, writes of clients stall once the socket buffers are full
+	 */
+	public void pause() {
+		paused = true;
+	}
+
+	/**
+	 * Reads again
+	 */
+	public void resume() {
+		synchronized (readLock) {
+			paused = false;
+			readLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Acks every second chunk of a connection before the one received ahead of it
+	 */
+	public void swapAcks() {
+		swapAcks = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		resume();
+		serverChannel.close();
+		for (SocketChannel channel : channels) {
+			channel.close();
+		}
+		acks.shutdownNow();
+		if (path != null) {
+			Files.deleteIfExists(Paths.get(path));
+		}
+	}
+
+	private void accept() {
+		try {
+			while (true) {
+				final SocketChannel channel = serverChannel.accept();
+				connections.incrementAndGet();
+				if (killed) {
+					channel.close();
+					continue;
+				}
+				channels.add(channel);
+				Thread reader = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						read(channel);
+					}
+				}, "FakeForwardServer " + channel);
+				reader.setDaemon(true);
+				reader.start();
+			}
+		} catch (IOException e) {
+			/* closed */
+		}
+	}
+
+	private void read(final SocketChannel channel) {
+		byte[] scratch = new byte[SCRATCH_SIZE];
+		AtomicReference<String> held = new AtomicReference<>();
+		try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(new BufferedInputStream(
+				new ChannelInput(channel), SCRATCH_SIZE))) {
+			while (unpacker.hasNext()) {
+				int size = unpacker.unpackArrayHeader();
+				unpacker.unpackString();
+				int read = 2;
+				byte[] payload = null;
+				ValueType type = unpacker.getNextFormat().getValueType();
+				if (type == ValueType.STRING || type == ValueType.BINARY) {
+					int length = type == ValueType.STRING ? unpacker.unpackRawStringHeader()
+							: unpacker.unpackBinaryHeader();
+					if (recording) {
+						payload = new byte[length];
+						unpacker.readPayload(payload, 0, length);
+					} else {
+						for (int remaining = length; remaining > 0; remaining -= Math.min(remaining, SCRATCH_SIZE)) {
+							unpacker.readPayload(scratch, 0, Math.min(remaining, SCRATCH_SIZE));
+						}
+					}
+					bytes.addAndGet(length);
+				} else if (type == ValueType.ARRAY) {
+					int entries = unpacker.unpackArrayHeader();
+					for (int i = 0; i < entries; i++) {
+						unpacker.skipValue();
+					}
+				} else {
+					/* Message mode, time and record */
+					unpacker.skipValue();
+					unpacker.skipValue();
+					read++;
+				}
+				String chunk = null;
+				if (size > read) {
+					int options = unpacker.unpackMapHeader();
+					for (int i = 0; i < options; i++) {
+						if ("chunk".equals(unpacker.unpackString())) {
+							chunk = unpacker.unpackString();
+						} else {
+							unpacker.skipValue();
+						}
+					}
+				}
+				messages.incrementAndGet();
+				if (recording) {
+					synchronized (entries) {
+						if (payload != null) {
+							entries.add(payload);
+						}
+						if (chunk != null) {
+							chunks.add(chunk);
+						}
+					}
+				}
+				if (chunk != null) {
+					if (swapAcks) {
+						swap(channel, chunk, held);
+					} else {
+						ack(channel, chunk);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			/* closed by the client or the server */
+		} finally {
+			channels.remove(channel);
+		}
+	}
+
+	/* holds the ack of one chunk until the next chunk is acked */
+	private void swap(final SocketChannel channel, final String chunk, final AtomicReference<String> held)
+			throws IOException {
+		String previous = held.getAndSet(null);
+		if (previous != null) {
+			ack(channel, chunk);
+			ack(channel, previous);
+			return;
+		}
+		held.set(chunk);
+		acks.schedule(new Runnable() {
+			@Override
+			public void run() {
+				String alone = held.getAndSet(null);
+				if (alone != null) {
+					try {
+						ack(channel, alone);
+					} catch (IOException e) {
+						/* the client went away */
+					}
+				}
+			}
+		}, SWAP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void ack(final SocketChannel channel, final String chunk) throws IOException {
+		MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+		packer.packMapHeader(1);
+		packer.packString("ack");
+		packer.packString(chunk);
+		final ByteBuffer response = ByteBuffer.wrap(packer.toByteArray());
+		Runnable write = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (channel) {
+						while (response.hasRemaining()) {
+							channel.write(response);
+						}
+					}
+				} catch (IOException e) {
+					/* the client went away */
+				}
+			}
+		};
+		if (ackDelayMillis > 0) {
+			acks.schedule(write, ackDelayMillis, TimeUnit.MILLISECONDS);
+		} else {
+			write.run();
+		}
+	}
+
+	/* Java 16 API, looked up by reflection as the modules are built for 1.7 */
+	private static ServerSocketChannel openUnixDomainSocket() throws IOException {
+		try {
+			return (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+					.invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+		} catch (NoSuchMethodException | IllegalAccessException | IllegalArgumentException e) {
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static SocketAddress unixDomainSocketAddress(final String path) throws IOException {
+		try {
+			return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+					.invoke(null, path);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads of the channel without the lock Channels.newInputStream holds,
+	 * which would block acks written meanwhile; waits while the server is paused
+	 */
+	private final class ChannelInput extends InputStream {
+		private final SocketChannel channel;
+
+		private ChannelInput(final SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			synchronized (readLock) {
+				while (paused) {
+					try {
+						readLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while paused");
+					}
+				}
+			}
+			return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+		}
+	}
+}